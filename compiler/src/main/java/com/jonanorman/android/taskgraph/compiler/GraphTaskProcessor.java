@@ -0,0 +1,473 @@
+package com.jonanorman.android.taskgraph.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+public class GraphTaskProcessor extends AbstractProcessor {
+
+    static final String GRAPH_TASK = "com.jonanorman.android.taskgraph.GraphTask";
+    static final String TASK = "com.jonanorman.android.taskgraph.Task";
+    static final String TASK_GRAPH_PLAN = "com.jonanorman.android.taskgraph.TaskGraphPlan";
+    static final String GRAPH_TASK_INDEX = "com.jonanorman.android.taskgraph.GraphTaskIndex";
+    static final String INDEX_PACKAGE = "com.jonanorman.android.taskgraph.index";
+    static final String OPTION_INDEX = "taskGraphIndex";
+
+    private final Map<String, List<GraphTaskInfo>> graphTaskMap = new TreeMap<>();
+    private final Set<String> writtenGraphSet = new HashSet<>();
+    private boolean hasError;
+    private boolean indexLoaded;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(isIndexModule() ? GRAPH_TASK : "*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_INDEX);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement graphTaskElement = processingEnv.getElementUtils().getTypeElement(GRAPH_TASK);
+        if (graphTaskElement != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(graphTaskElement)) {
+                GraphTaskInfo taskInfo = parseGraphTask(element);
+                if (taskInfo == null) {
+                    continue;
+                }
+                addGraphTask(taskInfo);
+            }
+        }
+        boolean indexModule = isIndexModule();
+        if (!indexModule && !indexLoaded) {
+            indexLoaded = true;
+            loadIndex();
+        }
+        if (!hasError) {
+            for (Map.Entry<String, List<GraphTaskInfo>> entry : graphTaskMap.entrySet()) {
+                String graph = entry.getKey();
+                if (!writtenGraphSet.add(graph) && !indexModule) {
+                    error(entry.getValue().get(0).element, "graph " + graph + " plan is already generated in a previous round");
+                    continue;
+                }
+                List<GraphTaskInfo> sortedList = sortGraph(graph, entry.getValue(), indexModule);
+                if (sortedList == null) {
+                    continue;
+                }
+                if (indexModule) {
+                    for (GraphTaskInfo taskInfo : sortedList) {
+                        writeIndex(taskInfo);
+                    }
+                } else {
+                    writePlan(graph, sortedList);
+                }
+            }
+        }
+        graphTaskMap.clear();
+        return false;
+    }
+
+    private boolean isIndexModule() {
+        return Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_INDEX));
+    }
+
+    private void addGraphTask(GraphTaskInfo taskInfo) {
+        List<GraphTaskInfo> taskList = graphTaskMap.get(taskInfo.graph);
+        if (taskList == null) {
+            taskList = new ArrayList<>();
+            graphTaskMap.put(taskInfo.graph, taskList);
+        }
+        taskList.add(taskInfo);
+    }
+
+    private void loadIndex() {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageElement(INDEX_PACKAGE);
+        if (packageElement == null) {
+            return;
+        }
+        for (Element element : packageElement.getEnclosedElements()) {
+            String taskClass = getIndexTaskClass(element);
+            if (taskClass == null) {
+                continue;
+            }
+            TypeElement taskElement = processingEnv.getElementUtils().getTypeElement(taskClass);
+            if (taskElement == null) {
+                error(element, "index " + element + " points to missing task class " + taskClass);
+                continue;
+            }
+            GraphTaskInfo taskInfo = parseGraphTask(taskElement);
+            if (taskInfo != null) {
+                taskInfo.fromIndex = true;
+                addGraphTask(taskInfo);
+            }
+        }
+    }
+
+    private String getIndexTaskClass(Element element) {
+        for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+            if (!annotationMirror.getAnnotationType().toString().equals(GRAPH_TASK_INDEX)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotationMirror.getElementValues().entrySet()) {
+                if ("value".equals(entry.getKey().getSimpleName().toString())) {
+                    return (String) entry.getValue().getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private GraphTaskInfo parseGraphTask(Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, "@GraphTask can only be used on class");
+            return null;
+        }
+        TypeElement typeElement = (TypeElement) element;
+        Set<Modifier> modifiers = typeElement.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(element, "@GraphTask class must be public and not abstract");
+            return null;
+        }
+        if (typeElement.getNestingKind().isNested() && !modifiers.contains(Modifier.STATIC)) {
+            error(element, "@GraphTask nested class must be static");
+            return null;
+        }
+        TypeElement taskElement = processingEnv.getElementUtils().getTypeElement(TASK);
+        if (taskElement != null && !processingEnv.getTypeUtils().isSubtype(typeElement.asType(), taskElement.asType())) {
+            error(element, "@GraphTask class must extend " + TASK);
+            return null;
+        }
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            error(element, "@GraphTask class must have a public constructor without parameters");
+            return null;
+        }
+        GraphTaskInfo taskInfo = new GraphTaskInfo(typeElement);
+        for (AnnotationMirror annotationMirror : typeElement.getAnnotationMirrors()) {
+            TypeMirror annotationType = annotationMirror.getAnnotationType();
+            if (!annotationType.toString().equals(GRAPH_TASK)) {
+                continue;
+            }
+            Map<? extends ExecutableElement, ? extends AnnotationValue> valueMap =
+                    processingEnv.getElementUtils().getElementValuesWithDefaults(annotationMirror);
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : valueMap.entrySet()) {
+                String key = entry.getKey().getSimpleName().toString();
+                Object value = entry.getValue().getValue();
+                if ("graph".equals(key)) {
+                    taskInfo.graph = (String) value;
+                } else if ("name".equals(key)) {
+                    taskInfo.name = (String) value;
+                } else if ("dependsOn".equals(key)) {
+                    for (Object depend : (List<?>) value) {
+                        taskInfo.dependsOn.add((String) ((AnnotationValue) depend).getValue());
+                    }
+                } else if ("mainThread".equals(key)) {
+                    taskInfo.mainThread = (Boolean) value;
+                } else if ("onlyMainProcess".equals(key)) {
+                    taskInfo.onlyMainProcess = (Boolean) value;
+                } else if ("priority".equals(key)) {
+                    taskInfo.priority = (Integer) value;
+                } else if ("lane".equals(key)) {
+                    taskInfo.lane = (String) value;
+                } else if ("serialQueue".equals(key)) {
+                    taskInfo.serialQueue = (String) value;
+                } else if ("memoKey".equals(key)) {
+                    taskInfo.memoKey = (String) value;
+                } else if ("checkpointKey".equals(key)) {
+                    taskInfo.checkpointKey = (String) value;
+                } else if ("threadPriority".equals(key)) {
+                    List<?> priorityList = (List<?>) value;
+                    if (priorityList.size() > 1) {
+                        error(element, "@GraphTask threadPriority accepts at most one value");
+                        return null;
+                    }
+                    if (!priorityList.isEmpty()) {
+                        taskInfo.threadPriority = ((AnnotationValue) priorityList.get(0)).getValue().toString();
+                    }
+                }
+            }
+        }
+        if (taskInfo.name.isEmpty()) {
+            taskInfo.name = typeElement.getSimpleName().toString();
+        }
+        return taskInfo;
+    }
+
+    private List<GraphTaskInfo> sortGraph(String graph, List<GraphTaskInfo> taskList, boolean indexModule) {
+        Map<String, GraphTaskInfo> nameMap = new HashMap<>();
+        for (GraphTaskInfo taskInfo : taskList) {
+            GraphTaskInfo sameInfo = nameMap.put(taskInfo.name, taskInfo);
+            if (sameInfo != null) {
+                error(taskInfo.element, "graph " + graph + " has duplicate task name " + taskInfo.name + ", also used by " + sameInfo.element);
+                return null;
+            }
+        }
+        boolean valid = true;
+        Map<GraphTaskInfo, List<GraphTaskInfo>> outgoingMap = new HashMap<>();
+        Map<GraphTaskInfo, Integer> inDegreeMap = new HashMap<>();
+        for (GraphTaskInfo taskInfo : taskList) {
+            outgoingMap.put(taskInfo, new ArrayList<GraphTaskInfo>());
+            inDegreeMap.put(taskInfo, 0);
+        }
+        for (GraphTaskInfo taskInfo : taskList) {
+            for (String depend : new LinkedHashSet<>(taskInfo.dependsOn)) {
+                GraphTaskInfo dependInfo = nameMap.get(depend);
+                if (dependInfo == null) {
+                    if (indexModule) {
+                        continue;
+                    }
+                    error(taskInfo.element, "task " + taskInfo.name + " depends on missing task " + depend + " in graph " + graph
+                            + ", a library module must compile with -A" + OPTION_INDEX + "=true so the app module merges its tasks");
+                    valid = false;
+                    continue;
+                }
+                if (dependInfo == taskInfo) {
+                    error(taskInfo.element, "task " + taskInfo.name + " depends on itself");
+                    valid = false;
+                    continue;
+                }
+                taskInfo.dependInfoList.add(dependInfo);
+                outgoingMap.get(dependInfo).add(taskInfo);
+                inDegreeMap.put(taskInfo, inDegreeMap.get(taskInfo) + 1);
+            }
+        }
+        if (!valid) {
+            return null;
+        }
+        PriorityQueue<GraphTaskInfo> readyQueue = new PriorityQueue<>(Math.max(1, taskList.size()), new Comparator<GraphTaskInfo>() {
+            @Override
+            public int compare(GraphTaskInfo o1, GraphTaskInfo o2) {
+                if (o1.priority != o2.priority) {
+                    return o1.priority > o2.priority ? -1 : 1;
+                }
+                return o1.name.compareTo(o2.name);
+            }
+        });
+        for (GraphTaskInfo taskInfo : taskList) {
+            if (inDegreeMap.get(taskInfo) == 0) {
+                readyQueue.offer(taskInfo);
+            }
+        }
+        List<GraphTaskInfo> sortedList = new ArrayList<>();
+        while (!readyQueue.isEmpty()) {
+            GraphTaskInfo taskInfo = readyQueue.poll();
+            taskInfo.index = sortedList.size();
+            sortedList.add(taskInfo);
+            for (GraphTaskInfo nextInfo : outgoingMap.get(taskInfo)) {
+                int inDegree = inDegreeMap.get(nextInfo) - 1;
+                inDegreeMap.put(nextInfo, inDegree);
+                if (inDegree == 0) {
+                    readyQueue.offer(nextInfo);
+                }
+            }
+        }
+        if (sortedList.size() != taskList.size()) {
+            StringBuilder builder = new StringBuilder();
+            for (GraphTaskInfo taskInfo : taskList) {
+                if (inDegreeMap.get(taskInfo) > 0) {
+                    builder.append(taskInfo.name).append(' ');
+                }
+            }
+            error(taskList.get(0).element, "graph " + graph + " has cycle between tasks " + builder.toString().trim());
+            return null;
+        }
+        return sortedList;
+    }
+
+    private void writePlan(String graph, List<GraphTaskInfo> sortedList) {
+        List<GraphTaskInfo> qualifiedList = new ArrayList<>(sortedList);
+        Collections.sort(qualifiedList, new Comparator<GraphTaskInfo>() {
+            @Override
+            public int compare(GraphTaskInfo o1, GraphTaskInfo o2) {
+                if (o1.fromIndex != o2.fromIndex) {
+                    return o1.fromIndex ? 1 : -1;
+                }
+                return o1.element.getQualifiedName().toString().compareTo(o2.element.getQualifiedName().toString());
+            }
+        });
+        String packageName = processingEnv.getElementUtils().getPackageOf(qualifiedList.get(0).element).getQualifiedName().toString();
+        String className = toClassName(graph) + "TaskGraphPlan";
+        StringBuilder builder = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            builder.append("package ").append(packageName).append(";\n\n");
+        }
+        builder.append("public final class ").append(className).append(" {\n\n");
+        builder.append("    public static final String GRAPH_NAME = ").append(quote(graph)).append(";\n\n");
+        builder.append("    private ").append(className).append("() {\n    }\n\n");
+        builder.append("    public static ").append(TASK_GRAPH_PLAN).append(" create() {\n");
+        builder.append("        ").append(TASK).append("[] tasks = new ").append(TASK).append("[").append(sortedList.size()).append("];\n");
+        builder.append("        int[][] dependIndexes = new int[").append(sortedList.size()).append("][];\n");
+        for (GraphTaskInfo taskInfo : sortedList) {
+            String task = "tasks[" + taskInfo.index + "]";
+            builder.append("        ").append(task).append(" = new ").append(taskInfo.element.getQualifiedName()).append("();\n");
+            builder.append("        ").append(task).append(".setName(").append(quote(taskInfo.name)).append(");\n");
+            builder.append("        ").append(task).append(".setMainThread(").append(taskInfo.mainThread).append(");\n");
+            builder.append("        ").append(task).append(".setOnlyMainProcess(").append(taskInfo.onlyMainProcess).append(");\n");
+            builder.append("        ").append(task).append(".setPriority(").append(taskInfo.priority).append(");\n");
+            if (!taskInfo.lane.isEmpty()) {
+                builder.append("        ").append(task).append(".setLane(").append(quote(taskInfo.lane)).append(");\n");
+            }
+            if (!taskInfo.serialQueue.isEmpty()) {
+                builder.append("        ").append(task).append(".setSerialQueue(").append(quote(taskInfo.serialQueue)).append(");\n");
+            }
+            if (!taskInfo.memoKey.isEmpty()) {
+                builder.append("        ").append(task).append(".setMemoKey(").append(quote(taskInfo.memoKey)).append(");\n");
+            }
+            if (!taskInfo.checkpointKey.isEmpty()) {
+                builder.append("        ").append(task).append(".setCheckpointKey(").append(quote(taskInfo.checkpointKey)).append(");\n");
+            }
+            if (taskInfo.threadPriority != null) {
+                builder.append("        ").append(task).append(".setThreadPriority(").append(TASK).append(".ThreadPriority.")
+                        .append(taskInfo.threadPriority).append(");\n");
+            }
+            builder.append("        dependIndexes[").append(taskInfo.index).append("] = new int[]{");
+            for (int i = 0; i < taskInfo.dependInfoList.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(taskInfo.dependInfoList.get(i).index);
+            }
+            builder.append("};\n");
+        }
+        builder.append("        return new ").append(TASK_GRAPH_PLAN).append("(GRAPH_NAME, tasks, dependIndexes);\n");
+        builder.append("    }\n");
+        builder.append("}\n");
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        Element[] originElements = new Element[sortedList.size()];
+        for (int i = 0; i < sortedList.size(); i++) {
+            originElements[i] = sortedList.get(i).element;
+        }
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName, originElements);
+            Writer writer = sourceFile.openWriter();
+            try {
+                writer.write(builder.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            error(sortedList.get(0).element, "write " + qualifiedName + " fail, " + e.getMessage());
+        }
+    }
+
+    private void writeIndex(GraphTaskInfo taskInfo) {
+        String taskClass = taskInfo.element.getQualifiedName().toString();
+        String className = "GraphTaskIndex_" + taskClass.replace("_", "__").replace('.', '_');
+        StringBuilder builder = new StringBuilder();
+        builder.append("package ").append(INDEX_PACKAGE).append(";\n\n");
+        builder.append("@").append(GRAPH_TASK_INDEX).append("(").append(quote(taskClass)).append(")\n");
+        builder.append("public final class ").append(className).append(" {\n\n");
+        builder.append("    private ").append(className).append("() {\n    }\n");
+        builder.append("}\n");
+        String qualifiedName = INDEX_PACKAGE + "." + className;
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName, taskInfo.element);
+            Writer writer = sourceFile.openWriter();
+            try {
+                writer.write(builder.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            error(taskInfo.element, "write " + qualifiedName + " fail, " + e.getMessage());
+        }
+    }
+
+    private static String toClassName(String graph) {
+        StringBuilder builder = new StringBuilder();
+        boolean upper = true;
+        for (int i = 0; i < graph.length(); i++) {
+            char c = graph.charAt(i);
+            if (!Character.isJavaIdentifierPart(c)) {
+                upper = true;
+                continue;
+            }
+            builder.append(upper ? Character.toUpperCase(c) : c);
+            upper = false;
+        }
+        if (builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        hasError = true;
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static class GraphTaskInfo {
+        final TypeElement element;
+        final List<String> dependsOn = new ArrayList<>();
+        final List<GraphTaskInfo> dependInfoList = new ArrayList<>();
+        String graph = "Default";
+        String name = "";
+        String lane = "";
+        String serialQueue = "";
+        String memoKey = "";
+        String checkpointKey = "";
+        String threadPriority;
+        boolean mainThread;
+        boolean onlyMainProcess = true;
+        int priority;
+        int index;
+        boolean fromIndex;
+
+        GraphTaskInfo(TypeElement element) {
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.jonanorman.android.taskgraph.compiler;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+
+public class GraphTaskProcessorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void generatesSortedPlan() {
+        Compilation compilation = compile(
+                newTask("app.InitA", "@GraphTask(graph = \"Startup\", priority = 1)"),
+                newTask("app.InitB", "@GraphTask(graph = \"Startup\", dependsOn = \"InitA\")"));
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("app.StartupTaskGraphPlan").contentsAsUtf8String()
+                .contains("tasks[0] = new app.InitA();");
+        assertThat(compilation).generatedSourceFile("app.StartupTaskGraphPlan").contentsAsUtf8String()
+                .contains("dependIndexes[1] = new int[]{0};");
+    }
+
+    @Test
+    public void missingDependencyFails() {
+        Compilation compilation = compile(newTask("app.InitA", "@GraphTask(graph = \"Startup\", dependsOn = \"Missing\")"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("task InitA depends on missing task Missing in graph Startup");
+    }
+
+    @Test
+    public void cycleFails() {
+        Compilation compilation = compile(
+                newTask("app.InitA", "@GraphTask(graph = \"Startup\", dependsOn = \"InitB\")"),
+                newTask("app.InitB", "@GraphTask(graph = \"Startup\", dependsOn = \"InitA\")"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("graph Startup has cycle between tasks InitA InitB");
+    }
+
+    @Test
+    public void schedulingAttributesAreGenerated() {
+        Compilation compilation = compile(newTask("app.InitA", "@GraphTask(serialQueue = \"db\", memoKey = \"memo\","
+                + " checkpointKey = \"v1\", threadPriority = Task.ThreadPriority.BACKGROUND)"));
+        assertThat(compilation).succeeded();
+        String[] lines = {
+                "tasks[0].setSerialQueue(\"db\");",
+                "tasks[0].setMemoKey(\"memo\");",
+                "tasks[0].setCheckpointKey(\"v1\");",
+                "tasks[0].setThreadPriority(com.jonanorman.android.taskgraph.Task.ThreadPriority.BACKGROUND);"
+        };
+        for (String line : lines) {
+            assertThat(compilation).generatedSourceFile("app.DefaultTaskGraphPlan").contentsAsUtf8String().contains(line);
+        }
+    }
+
+    @Test
+    public void multipleThreadPrioritiesFail() {
+        Compilation compilation = compile(newTask("app.InitA",
+                "@GraphTask(threadPriority = {Task.ThreadPriority.BACKGROUND, Task.ThreadPriority.LOWEST})"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("threadPriority accepts at most one value");
+    }
+
+    @Test
+    public void indexMergesLibraryModule() throws Exception {
+        File libraryDir = temporaryFolder.newFolder("library");
+        List<JavaFileObject> librarySources = new ArrayList<>(runtimeSources());
+        librarySources.add(newTask("lib.LibInit", "@GraphTask(graph = \"Startup\")"));
+        librarySources.add(newTask("lib.LibLate", "@GraphTask(graph = \"Startup\", dependsOn = \"AppInit\")"));
+        JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(null, null, null);
+        try {
+            JavaCompiler.CompilationTask compilationTask = javaCompiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", libraryDir.getPath(), "-A" + GraphTaskProcessor.OPTION_INDEX + "=true"),
+                    null, librarySources);
+            compilationTask.setProcessors(Collections.singletonList(new GraphTaskProcessor()));
+            Assert.assertTrue(compilationTask.call());
+        } finally {
+            fileManager.close();
+        }
+        Assert.assertTrue(new File(libraryDir, "com/jonanorman/android/taskgraph/index/GraphTaskIndex_lib_LibInit.class").exists());
+
+        Compilation compilation = Compiler.javac()
+                .withProcessors(new GraphTaskProcessor())
+                .withClasspath(Collections.singletonList(libraryDir))
+                .compile(newTask("app.AppInit", "@GraphTask(graph = \"Startup\", dependsOn = \"LibInit\")"));
+        assertThat(compilation).succeeded();
+        String[] lines = {
+                "tasks[0] = new lib.LibInit();",
+                "tasks[1] = new app.AppInit();",
+                "tasks[2] = new lib.LibLate();",
+                "dependIndexes[2] = new int[]{1};"
+        };
+        for (String line : lines) {
+            assertThat(compilation).generatedSourceFile("app.StartupTaskGraphPlan").contentsAsUtf8String().contains(line);
+        }
+    }
+
+    private Compilation compile(JavaFileObject... taskSources) {
+        List<JavaFileObject> sources = new ArrayList<>(runtimeSources());
+        sources.addAll(Arrays.asList(taskSources));
+        return Compiler.javac().withProcessors(new GraphTaskProcessor()).compile(sources);
+    }
+
+    private static JavaFileObject newTask(String className, String annotation) {
+        int dot = className.lastIndexOf('.');
+        return JavaFileObjects.forSourceLines(className,
+                "package " + className.substring(0, dot) + ";",
+                "import com.jonanorman.android.taskgraph.GraphTask;",
+                "import com.jonanorman.android.taskgraph.Task;",
+                annotation,
+                "public class " + className.substring(dot + 1) + " extends Task {",
+                "}");
+    }
+
+    private static List<JavaFileObject> runtimeSources() {
+        return Arrays.asList(
+                JavaFileObjects.forSourceLines("com.jonanorman.android.taskgraph.GraphTask",
+                        "package com.jonanorman.android.taskgraph;",
+                        "public @interface GraphTask {",
+                        "    String graph() default \"Default\";",
+                        "    String name() default \"\";",
+                        "    String[] dependsOn() default {};",
+                        "    boolean mainThread() default false;",
+                        "    boolean onlyMainProcess() default true;",
+                        "    int priority() default 0;",
+                        "    String lane() default \"\";",
+                        "    String serialQueue() default \"\";",
+                        "    String memoKey() default \"\";",
+                        "    String checkpointKey() default \"\";",
+                        "    Task.ThreadPriority[] threadPriority() default {};",
+                        "}"),
+                JavaFileObjects.forSourceLines("com.jonanorman.android.taskgraph.GraphTaskIndex",
+                        "package com.jonanorman.android.taskgraph;",
+                        "public @interface GraphTaskIndex {",
+                        "    String value();",
+                        "}"),
+                JavaFileObjects.forSourceLines("com.jonanorman.android.taskgraph.Task",
+                        "package com.jonanorman.android.taskgraph;",
+                        "public class Task {",
+                        "    public enum ThreadPriority { LOWEST, BACKGROUND, DEFAULT, FOREGROUND, DISPLAY }",
+                        "    public Task setName(String name) { return this; }",
+                        "    public Task setMainThread(boolean mainThread) { return this; }",
+                        "    public Task setOnlyMainProcess(boolean onlyMainProcess) { return this; }",
+                        "    public Task setPriority(int priority) { return this; }",
+                        "    public Task setLane(String lane) { return this; }",
+                        "    public Task setSerialQueue(String serialQueue) { return this; }",
+                        "    public Task setMemoKey(String memoKey) { return this; }",
+                        "    public Task setCheckpointKey(String checkpointKey) { return this; }",
+                        "    public Task setThreadPriority(ThreadPriority threadPriority) { return this; }",
+                        "}"),
+                JavaFileObjects.forSourceLines("com.jonanorman.android.taskgraph.TaskGraphPlan",
+                        "package com.jonanorman.android.taskgraph;",
+                        "public class TaskGraphPlan {",
+                        "    public TaskGraphPlan(String name, Task[] tasks, int[][] dependIndexes) {",
+                        "    }",
+                        "}"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class TaskGraphAllocationBenchmark {
+
+    private static final String TAG = "TaskGraphAllocation";
+    private static final int SMALL_TASK_COUNT = 500;
+    private static final int LARGE_TASK_COUNT = 1000;
+    private static final int WARMUP_COUNT = 5;
+    private static final int MEASURE_COUNT = 9;
+    private static final long MAX_DISPATCH_BYTES_PER_TASK = 8;
+
+    private volatile long firstBytes;
+    private volatile long lastBytes;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+        Application application = (Application) InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getApplicationContext();
+        TaskGraphModule.initApplication(application);
+        TaskGraphModule.setLogFunction(null);
+    }
+
+    @Test
+    public void chain() throws Exception {
+        measure("chain", false, false, TaskGraphExecutor.getDefault());
+    }
+
+    @Test
+    public void fanOut() throws Exception {
+        measure("fanOut", true, false, TaskGraphExecutor.getDefault());
+    }
+
+    @Test
+    public void mainThreadWatchdog() throws Exception {
+        TaskGraphExecutor executor = new TaskGraphExecutor();
+        executor.setMainThreadWatchdog(new MainThreadWatchdog());
+        measure("mainThreadWatchdog", false, true, executor);
+    }
+
+    private void measure(String name, boolean fanOut, boolean mainThread, TaskGraphExecutor executor) throws Exception {
+        TaskGraphPlan smallPlan = compilePlan(name, SMALL_TASK_COUNT, fanOut, mainThread);
+        TaskGraphPlan largePlan = compilePlan(name, LARGE_TASK_COUNT, fanOut, mainThread);
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            run(smallPlan, executor);
+            run(largePlan, executor);
+        }
+        long[] dispatchBytes = new long[MEASURE_COUNT];
+        long[] executeBytes = new long[MEASURE_COUNT];
+        for (int i = 0; i < MEASURE_COUNT; i++) {
+            long[] small = run(smallPlan, executor);
+            long[] large = run(largePlan, executor);
+            int taskCount = LARGE_TASK_COUNT - SMALL_TASK_COUNT;
+            dispatchBytes[i] = (large[0] - small[0]) / taskCount;
+            executeBytes[i] = (large[1] - small[1]) / taskCount;
+        }
+        Arrays.sort(dispatchBytes);
+        Arrays.sort(executeBytes);
+        long medianDispatchBytes = dispatchBytes[MEASURE_COUNT / 2];
+        String result = name + " dispatch " + medianDispatchBytes + " bytes/task " + Arrays.toString(dispatchBytes)
+                + ", execute " + executeBytes[MEASURE_COUNT / 2] + " bytes/task";
+        Log.i(TAG, result);
+        Bundle bundle = new Bundle();
+        bundle.putString(TAG, result);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, bundle);
+        Assert.assertTrue(result, medianDispatchBytes <= MAX_DISPATCH_BYTES_PER_TASK);
+    }
+
+    private TaskGraphPlan compilePlan(String name, final int taskCount, boolean fanOut, boolean mainThread) {
+        List<Task> taskList = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            final int index = i;
+            Task task = new Task(name + i, new Runnable() {
+                @Override
+                public void run() {
+                    if (index == 0) {
+                        firstBytes = getAllocatedBytes();
+                    } else if (index == taskCount - 1) {
+                        lastBytes = getAllocatedBytes();
+                    }
+                }
+            }, mainThread, false);
+            if (i == taskCount - 1) {
+                for (int j = fanOut ? 1 : i - 1; j < i; j++) {
+                    task.dependsOn(name + j);
+                }
+            } else if (i > 0) {
+                task.dependsOn(fanOut ? name + 0 : name + (i - 1));
+            }
+            taskList.add(task);
+        }
+        return TaskGraphPlan.compile(name + taskCount, taskList);
+    }
+
+    private long[] run(TaskGraphPlan plan, TaskGraphExecutor executor) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TaskGraph taskGraph = new TaskGraph(plan.getName()).addTaskPlan(plan);
+        taskGraph.addTaskGraphListener(new TaskGraph.TaskGraphListener() {
+            @Override
+            public void onTaskGraphStart(TaskGraph taskGraph) {
+            }
+
+            @Override
+            public void onTaskGraphEnd(TaskGraph taskGraph, long time, TimeUnit timeUnit) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onTaskGraphCancel(TaskGraph taskGraph, TaskCancelException cancelException) {
+                latch.countDown();
+            }
+        });
+        Runtime.getRuntime().gc();
+        long startBytes = getAllocatedBytes();
+        taskGraph.execute(executor);
+        Assert.assertTrue(taskGraph.getName() + " timeout", latch.await(10, TimeUnit.SECONDS));
+        return new long[]{lastBytes - firstBytes, lastBytes - startBytes};
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
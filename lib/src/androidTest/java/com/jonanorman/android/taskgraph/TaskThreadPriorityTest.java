@@ -0,0 +1,97 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class TaskThreadPriorityTest {
+
+    private static final String LANE = "priority";
+
+    private final Map<String, Integer> priorityMap = new ConcurrentHashMap<>();
+    private final Map<String, Integer> tidMap = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        Application application = (Application) InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getApplicationContext();
+        TaskGraphModule.initApplication(application);
+    }
+
+    @Test
+    public void priorityIsRestoredAfterTask() throws Exception {
+        TaskGraphExecutor executor = new TaskGraphExecutor();
+        executor.setLanePoolSize(LANE, 1);
+        TaskGraph taskGraph = new TaskGraph("priority");
+        taskGraph.addTask(newTask("A", false));
+        taskGraph.addTask(newTask("B", false).setThreadPriority(Task.ThreadPriority.BACKGROUND).dependsOn("A"));
+        taskGraph.addTask(newTask("C", false).setThreadPriority(Task.ThreadPriority.LOWEST).dependsOn("B"));
+        taskGraph.addTask(newTask("D", false).dependsOn("C"));
+        execute(taskGraph, executor);
+        Assert.assertEquals(tidMap.get("A"), tidMap.get("D"));
+        Assert.assertEquals(Process.THREAD_PRIORITY_BACKGROUND, (int) priorityMap.get("B"));
+        Assert.assertEquals(Process.THREAD_PRIORITY_LOWEST, (int) priorityMap.get("C"));
+        Assert.assertEquals(priorityMap.get("A"), priorityMap.get("D"));
+    }
+
+    @Test
+    public void mainThreadTaskIgnoresPriority() throws Exception {
+        final int[] mainPriority = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mainPriority[0] = Process.getThreadPriority(Process.myTid());
+            }
+        });
+        TaskGraph taskGraph = new TaskGraph("mainPriority");
+        taskGraph.addTask(newTask("M", true).setThreadPriority(Task.ThreadPriority.LOWEST));
+        execute(taskGraph, TaskGraphExecutor.getDefault());
+        Assert.assertEquals(mainPriority[0], (int) priorityMap.get("M"));
+    }
+
+    private Task newTask(final String name, boolean mainThread) {
+        Task task = new Task(name, new Runnable() {
+            @Override
+            public void run() {
+                int tid = Process.myTid();
+                tidMap.put(name, tid);
+                priorityMap.put(name, Process.getThreadPriority(tid));
+            }
+        }, mainThread, false);
+        return mainThread ? task : task.setLane(LANE);
+    }
+
+    private static void execute(TaskGraph taskGraph, TaskGraphExecutor executor) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        taskGraph.addTaskGraphListener(new TaskGraph.TaskGraphListener() {
+            @Override
+            public void onTaskGraphStart(TaskGraph taskGraph) {
+            }
+
+            @Override
+            public void onTaskGraphEnd(TaskGraph taskGraph, long time, TimeUnit timeUnit) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onTaskGraphCancel(TaskGraph taskGraph, TaskCancelException cancelException) {
+                latch.countDown();
+            }
+        });
+        taskGraph.execute(executor);
+        Assert.assertTrue(taskGraph.getName() + " timeout", latch.await(10, TimeUnit.SECONDS));
+    }
+}
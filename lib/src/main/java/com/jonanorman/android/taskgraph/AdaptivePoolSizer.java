@@ -0,0 +1,92 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.concurrent.TimeUnit;
+
+class AdaptivePoolSizer {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int SAMPLE_WINDOW_SIZE = 8;
+    private static final long SAMPLE_WINDOW_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double SATURATED_UTILIZATION = 0.9;
+    private static final double TARGET_UTILIZATION = 0.75;
+    private static final double MIN_QUEUE_LENGTH = 0.5;
+
+    private final TaskLane taskLane;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final Object sync = new Object();
+    private long windowStartTime;
+    private long windowCpuTime;
+    private long windowQueueWaitTime;
+    private int windowSampleCount;
+
+    AdaptivePoolSizer(TaskLane taskLane, int minPoolSize, int maxPoolSize) {
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("adaptive pool size must satisfy 1 <= min <= max, min " + minPoolSize + " max " + maxPoolSize);
+        }
+        this.taskLane = taskLane;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.windowStartTime = System.nanoTime();
+        taskLane.setPoolSize(clamp(taskLane.threadPoolExecutor.getCorePoolSize()));
+    }
+
+    int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    void sampleQueueWait(long queueWaitTime) {
+        if (queueWaitTime <= 0) {
+            return;
+        }
+        synchronized (sync) {
+            windowQueueWaitTime += queueWaitTime;
+        }
+    }
+
+    void sample(long cpuTime) {
+        if (cpuTime < 0) {
+            return;
+        }
+        long windowTime;
+        long totalCpuTime;
+        long totalQueueWaitTime;
+        synchronized (sync) {
+            windowCpuTime += TimeUnit.MILLISECONDS.toNanos(cpuTime);
+            windowSampleCount++;
+            long now = System.nanoTime();
+            windowTime = now - windowStartTime;
+            if (windowSampleCount < SAMPLE_WINDOW_SIZE || windowTime < SAMPLE_WINDOW_TIME) {
+                return;
+            }
+            totalCpuTime = windowCpuTime;
+            totalQueueWaitTime = windowQueueWaitTime;
+            windowCpuTime = 0;
+            windowQueueWaitTime = 0;
+            windowSampleCount = 0;
+            windowStartTime = now;
+        }
+        double utilization = Math.min(1, (double) totalCpuTime / ((double) windowTime * CPU_COUNT));
+        double queueLength = (double) totalQueueWaitTime / windowTime;
+        int currentPoolSize = taskLane.threadPoolExecutor.getCorePoolSize();
+        int targetPoolSize = currentPoolSize;
+        if (utilization >= SATURATED_UTILIZATION) {
+            if (currentPoolSize > CPU_COUNT) {
+                targetPoolSize = currentPoolSize - (currentPoolSize - CPU_COUNT + 1) / 2;
+            }
+        } else if (utilization < TARGET_UTILIZATION && queueLength >= MIN_QUEUE_LENGTH) {
+            int growPoolSize = (int) Math.ceil(currentPoolSize * TARGET_UTILIZATION / Math.max(utilization, 0.01));
+            targetPoolSize = Math.min(growPoolSize, currentPoolSize + (int) Math.ceil(queueLength));
+        }
+        targetPoolSize = clamp(targetPoolSize);
+        if (targetPoolSize != currentPoolSize) {
+            TaskGraphModule.logDebug(taskLane.name + " adaptive pool size " + currentPoolSize + " -> " + targetPoolSize
+                    + ", cpu utilization " + (int) (utilization * 100) + "% queue length " + queueLength);
+            taskLane.setPoolSize(targetPoolSize);
+        }
+    }
+
+    private int clamp(int poolSize) {
+        return Math.max(minPoolSize, Math.min(maxPoolSize, poolSize));
+    }
+}
@@ -1,10 +1,14 @@
 package com.jonanorman.android.taskgraph;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
@@ -15,6 +19,8 @@ class DirectedGraph<V> implements Cloneable {
 
     public static class Vertex<V> implements Cloneable {
 
+        private static final int VERTEX_HASH = "Vertex".hashCode();
+
         private V value;
 
         public Vertex(V v) {
@@ -39,7 +45,7 @@ class DirectedGraph<V> implements Cloneable {
 
         @Override
         public int hashCode() {
-            return Objects.hash(value,"Vertex");
+            return 31 * (31 + Objects.hashCode(value)) + VERTEX_HASH;
         }
 
         @Override
@@ -59,6 +65,8 @@ class DirectedGraph<V> implements Cloneable {
     public static class Edge<V> implements Cloneable {
         private Vertex<V> from;
         private Vertex<V> to;
+        private int fromIndex;
+        private int toIndex;
 
         public Edge(Vertex<V> from, Vertex<V> to) {
             this.from = from;
@@ -83,7 +91,7 @@ class DirectedGraph<V> implements Cloneable {
 
         @Override
         public int hashCode() {
-            return Objects.hash(from, to);
+            return 31 * (31 + Objects.hashCode(from)) + Objects.hashCode(to);
         }
 
         @Override
@@ -106,15 +114,21 @@ class DirectedGraph<V> implements Cloneable {
 
         private Vertex<V> vertex;
 
-        private Set<Edge<V>> incomingEdges;
+        private Map<Edge<V>, Edge<V>> incomingEdges;
+
+        private Map<Edge<V>, Edge<V>> outgoingEdges;
 
-        private Set<Edge<V>> outgoingEdges;
+        private List<Edge<V>> incomingEdgeList;
+
+        private List<Edge<V>> outgoingEdgeList;
 
 
         public Node(Vertex<V> vertex) {
             this.vertex = vertex;
-            this.incomingEdges = new HashSet<>();
-            this.outgoingEdges = new HashSet<>();
+            this.incomingEdges = new HashMap<>();
+            this.outgoingEdges = new HashMap<>();
+            this.incomingEdgeList = new ArrayList<>();
+            this.outgoingEdgeList = new ArrayList<>();
         }
 
 
@@ -130,8 +144,10 @@ class DirectedGraph<V> implements Cloneable {
             if (!edge.getTo().equals(vertex)) {
                 throw new IllegalArgumentException("incoming edge is not to " + vertex);
             }
-            if (!incomingEdges.contains(edge)) {
-                incomingEdges.add(edge);
+            if (!incomingEdges.containsKey(edge)) {
+                incomingEdges.put(edge, edge);
+                edge.toIndex = incomingEdgeList.size();
+                incomingEdgeList.add(edge);
             }
         }
 
@@ -139,8 +155,10 @@ class DirectedGraph<V> implements Cloneable {
             if (!edge.getFrom().equals(vertex)) {
                 throw new IllegalArgumentException("outgoing edge is not from " + vertex);
             }
-            if (!outgoingEdges.contains(edge)) {
-                outgoingEdges.add(edge);
+            if (!outgoingEdges.containsKey(edge)) {
+                outgoingEdges.put(edge, edge);
+                edge.fromIndex = outgoingEdgeList.size();
+                outgoingEdgeList.add(edge);
             }
         }
 
@@ -148,8 +166,14 @@ class DirectedGraph<V> implements Cloneable {
             if (!edge.getTo().equals(vertex)) {
                 throw new IllegalArgumentException("incoming edge  is not to " + vertex);
             }
-            if (incomingEdges.contains(edge)) {
-                incomingEdges.remove(edge);
+            Edge<V> incomingEdge = incomingEdges.remove(edge);
+            if (incomingEdge == null) {
+                return;
+            }
+            Edge<V> lastEdge = incomingEdgeList.remove(incomingEdgeList.size() - 1);
+            if (lastEdge != incomingEdge) {
+                incomingEdgeList.set(incomingEdge.toIndex, lastEdge);
+                lastEdge.toIndex = incomingEdge.toIndex;
             }
         }
 
@@ -158,31 +182,43 @@ class DirectedGraph<V> implements Cloneable {
             if (!edge.getFrom().equals(vertex)) {
                 throw new IllegalArgumentException("outgoing edge  is not from " + vertex);
             }
-            if (outgoingEdges.contains(edge)) {
-                outgoingEdges.remove(edge);
+            Edge<V> outgoingEdge = outgoingEdges.remove(edge);
+            if (outgoingEdge == null) {
+                return;
             }
+            Edge<V> lastEdge = outgoingEdgeList.remove(outgoingEdgeList.size() - 1);
+            if (lastEdge != outgoingEdge) {
+                outgoingEdgeList.set(outgoingEdge.fromIndex, lastEdge);
+                lastEdge.fromIndex = outgoingEdge.fromIndex;
+            }
+        }
 
+        private void clear() {
+            incomingEdges.clear();
+            outgoingEdges.clear();
+            incomingEdgeList.clear();
+            outgoingEdgeList.clear();
         }
 
         public boolean containsIncomingEdge(Edge<V> edge) {
             if (!edge.getTo().equals(vertex)) {
                 return false;
             }
-            return incomingEdges.contains(edge);
+            return incomingEdges.containsKey(edge);
         }
 
         public boolean containsOutgoingEdge(Edge<V> edge) {
             if (!edge.getFrom().equals(vertex)) {
                 return false;
             }
-            return outgoingEdges.contains(edge);
+            return outgoingEdges.containsKey(edge);
         }
 
         @Override
         public String toString() {
             return "Node " + vertex +
-                    ", incomingEdges=" + incomingEdges +
-                    ", outgoingEdges=" + outgoingEdges;
+                    ", incomingEdges=" + incomingEdges.keySet() +
+                    ", outgoingEdges=" + outgoingEdges.keySet();
         }
 
 
@@ -190,13 +226,19 @@ class DirectedGraph<V> implements Cloneable {
         public Object clone() throws CloneNotSupportedException {
             Node clone = (Node) super.clone();
             clone.vertex = (Vertex) vertex.clone();
-            clone.incomingEdges = new HashSet();
-            clone.outgoingEdges = new HashSet();
-            for (Edge<V> incomingEdge : incomingEdges) {
-                clone.incomingEdges.add(incomingEdge.clone());
+            clone.incomingEdges = new HashMap();
+            clone.outgoingEdges = new HashMap();
+            clone.incomingEdgeList = new ArrayList();
+            clone.outgoingEdgeList = new ArrayList();
+            for (Edge<V> incomingEdge : incomingEdgeList) {
+                Edge<V> cloneEdge = (Edge<V>) incomingEdge.clone();
+                clone.incomingEdges.put(cloneEdge, cloneEdge);
+                clone.incomingEdgeList.add(cloneEdge);
             }
-            for (Edge<V> outgoingEdge : outgoingEdges) {
-                clone.outgoingEdges.add(outgoingEdge.clone());
+            for (Edge<V> outgoingEdge : outgoingEdgeList) {
+                Edge<V> cloneEdge = (Edge<V>) outgoingEdge.clone();
+                clone.outgoingEdges.put(cloneEdge, cloneEdge);
+                clone.outgoingEdgeList.add(cloneEdge);
             }
             return clone;
         }
@@ -223,26 +265,30 @@ class DirectedGraph<V> implements Cloneable {
     }
 
     public void removeVertex(Vertex<V> vertex) {
+        removeVertex(vertex, null);
+    }
+
+    public void removeVertex(Vertex<V> vertex, Collection<Vertex<V>> freeVertexCollection) {
         Node<V> node = graphMap.remove(vertex);
         if (node == null) {
             return;
         }
-        Iterator<Edge<V>> incomingEdgeIterator = node.incomingEdges.iterator();
-        while (incomingEdgeIterator.hasNext()) {
-            Edge<V> incomingEdge = incomingEdgeIterator.next();
-            incomingEdgeIterator.remove();
-            Vertex<V> from = incomingEdge.getFrom();
-            Node<V> fromNode = graphMap.get(from);
+        List<Edge<V>> incomingEdgeList = node.incomingEdgeList;
+        for (int i = 0; i < incomingEdgeList.size(); i++) {
+            Edge<V> incomingEdge = incomingEdgeList.get(i);
+            Node<V> fromNode = graphMap.get(incomingEdge.getFrom());
             fromNode.removeOutgoingEdge(incomingEdge);
         }
-        Iterator<Edge<V>> outgoingEdgeIterator = node.outgoingEdges.iterator();
-        while (outgoingEdgeIterator.hasNext()) {
-            Edge<V> outgoingEdge = outgoingEdgeIterator.next();
-            outgoingEdgeIterator.remove();
-            Vertex<V> to = outgoingEdge.getTo();
-            Node<V> toNode = graphMap.get(to);
+        List<Edge<V>> outgoingEdgeList = node.outgoingEdgeList;
+        for (int i = 0; i < outgoingEdgeList.size(); i++) {
+            Edge<V> outgoingEdge = outgoingEdgeList.get(i);
+            Node<V> toNode = graphMap.get(outgoingEdge.getTo());
             toNode.removeIncomingEdge(outgoingEdge);
+            if (freeVertexCollection != null && toNode.getInDegree() == 0) {
+                freeVertexCollection.add(toNode.vertex);
+            }
         }
+        node.clear();
     }
 
 
@@ -315,7 +361,7 @@ class DirectedGraph<V> implements Cloneable {
         if (node == null) {
             throw new IllegalArgumentException("not exist IncomingEdge " + vertex);
         }
-        return node.incomingEdges;
+        return node.incomingEdges.keySet();
     }
 
     public Set<Edge<V>> getOutgoingEdgeSet(Vertex<V> vertex) {
@@ -323,7 +369,7 @@ class DirectedGraph<V> implements Cloneable {
         if (node == null) {
             throw new IllegalArgumentException("not exist OutgoingEdge " + vertex);
         }
-        return node.outgoingEdges;
+        return node.outgoingEdges.keySet();
     }
 
 
@@ -358,6 +404,68 @@ class DirectedGraph<V> implements Cloneable {
     }
 
 
+    public List<Vertex<V>> topologicalSort() {
+        List<Vertex<V>> sortList = new ArrayList<>(graphMap.size());
+        Map<Vertex<V>, Integer> inDegreeMap = new HashMap<>();
+        for (Map.Entry<Vertex<V>, Node<V>> entry : graphMap.entrySet()) {
+            int inDegree = entry.getValue().getInDegree();
+            inDegreeMap.put(entry.getKey(), inDegree);
+            if (inDegree == 0) {
+                sortList.add(entry.getKey());
+            }
+        }
+        for (int i = 0; i < sortList.size(); i++) {
+            for (Edge<V> edge : graphMap.get(sortList.get(i)).outgoingEdges.keySet()) {
+                int inDegree = inDegreeMap.get(edge.to) - 1;
+                inDegreeMap.put(edge.to, inDegree);
+                if (inDegree == 0) {
+                    sortList.add(edge.to);
+                }
+            }
+        }
+        if (sortList.size() != graphMap.size()) {
+            return null;
+        }
+        return sortList;
+    }
+
+    public List<Edge<V>> transitiveReduction() {
+        final ReachabilityIndex<V> reachabilityIndex = ReachabilityIndex.build(this);
+        if (reachabilityIndex == null) {
+            return null;
+        }
+        List<Edge<V>> reduceEdgeList = new ArrayList<>();
+        List<Edge<V>> edgeList = new ArrayList<>();
+        long[] covered = reachabilityIndex.newBits();
+        for (int i = 0; i < reachabilityIndex.size(); i++) {
+            Node<V> node = graphMap.get(reachabilityIndex.getVertex(i));
+            if (node.getOutDegree() < 2) {
+                continue;
+            }
+            edgeList.clear();
+            edgeList.addAll(node.outgoingEdges.keySet());
+            Collections.sort(edgeList, new Comparator<Edge<V>>() {
+                @Override
+                public int compare(Edge<V> o1, Edge<V> o2) {
+                    return reachabilityIndex.indexOf(o1.to) - reachabilityIndex.indexOf(o2.to);
+                }
+            });
+            Arrays.fill(covered, 0);
+            for (Edge<V> edge : edgeList) {
+                int to = reachabilityIndex.indexOf(edge.to);
+                if (ReachabilityIndex.contains(covered, to)) {
+                    reduceEdgeList.add(edge);
+                } else {
+                    ReachabilityIndex.or(covered, reachabilityIndex.getDescendantBits(to));
+                }
+            }
+        }
+        for (Edge<V> edge : reduceEdgeList) {
+            removeEdge(edge);
+        }
+        return reduceEdgeList;
+    }
+
     @Override
     public String toString() {
         return "DirectedGraph " + graphMap;
@@ -365,6 +473,10 @@ class DirectedGraph<V> implements Cloneable {
 
 
     public String getGraphPic() {
+        return getGraphPic(Collections.<Edge<V>>emptyList());
+    }
+
+    public String getGraphPic(Collection<Edge<V>> dashedEdges) {
         StringBuilder builder = new StringBuilder();
         builder.append("digraph pic {\n");
         for (Vertex<V> vertex : getVertexSet()) {
@@ -380,6 +492,9 @@ class DirectedGraph<V> implements Cloneable {
             }
 
         }
+        for (Edge<V> edge : dashedEdges) {
+            builder.append(edge.from.value + " -> " + edge.to.value + " [style=dashed];\n");
+        }
         builder.append("}\n");
         return builder.toString();
     }
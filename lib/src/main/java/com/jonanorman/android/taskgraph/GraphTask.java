@@ -0,0 +1,33 @@
+package com.jonanorman.android.taskgraph;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GraphTask {
+
+    String graph() default "Default";
+
+    String name() default "";
+
+    String[] dependsOn() default {};
+
+    boolean mainThread() default false;
+
+    boolean onlyMainProcess() default true;
+
+    int priority() default 0;
+
+    String lane() default "";
+
+    String serialQueue() default "";
+
+    String memoKey() default "";
+
+    String checkpointKey() default "";
+
+    Task.ThreadPriority[] threadPriority() default {};
+}
@@ -0,0 +1,13 @@
+package com.jonanorman.android.taskgraph;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GraphTaskIndex {
+
+    String value();
+}
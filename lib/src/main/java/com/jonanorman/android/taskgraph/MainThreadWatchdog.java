@@ -0,0 +1,236 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MainThreadWatchdog {
+
+    public static final long DEFAULT_FRAME_BUDGET_MILLIS = 16;
+
+    private final long frameBudgetMillis;
+    private final Object sync = new Object();
+    private final Map<String, Offender> offenderMap = new LinkedHashMap<>();
+    private final Object watchSync = new Object();
+    private final List<Watch> activeWatchList = new ArrayList<>();
+    private final List<Watch> freeWatchList = new ArrayList<>();
+    private Thread watchThread;
+    private volatile OverrunListener overrunListener;
+
+    public MainThreadWatchdog() {
+        this(DEFAULT_FRAME_BUDGET_MILLIS);
+    }
+
+    public MainThreadWatchdog(long frameBudgetMillis) {
+        if (frameBudgetMillis <= 0) {
+            throw new IllegalArgumentException("frame budget " + frameBudgetMillis + " must be positive");
+        }
+        this.frameBudgetMillis = frameBudgetMillis;
+    }
+
+    public long getFrameBudgetMillis() {
+        return frameBudgetMillis;
+    }
+
+    public MainThreadWatchdog setOverrunListener(OverrunListener overrunListener) {
+        this.overrunListener = overrunListener;
+        return this;
+    }
+
+    public List<Offender> getOffenders() {
+        List<Offender> offenderList = new ArrayList<>();
+        synchronized (sync) {
+            for (Offender offender : offenderMap.values()) {
+                offenderList.add(offender.copy());
+            }
+        }
+        Collections.sort(offenderList, new Comparator<Offender>() {
+            @Override
+            public int compare(Offender o1, Offender o2) {
+                return o1.totalOverrunTime > o2.totalOverrunTime ? -1 : (o1.totalOverrunTime == o2.totalOverrunTime ? 0 : 1);
+            }
+        });
+        return offenderList;
+    }
+
+    public List<Offender> getOffloadCandidates() {
+        List<Offender> candidateList = new ArrayList<>();
+        for (Offender offender : getOffenders()) {
+            if (offender.offloadable) {
+                candidateList.add(offender);
+            }
+        }
+        return candidateList;
+    }
+
+    public void clear() {
+        synchronized (sync) {
+            offenderMap.clear();
+        }
+    }
+
+    Watch watch(TaskController taskController) {
+        synchronized (watchSync) {
+            int freeSize = freeWatchList.size();
+            Watch watch = freeSize > 0 ? freeWatchList.remove(freeSize - 1) : new Watch();
+            watch.thread = Thread.currentThread();
+            watch.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+            watch.active = true;
+            activeWatchList.add(watch);
+            if (watchThread == null) {
+                watchThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        watchLoop();
+                    }
+                }, "TaskGraphWatchdog");
+                watchThread.setDaemon(true);
+                watchThread.start();
+            } else {
+                watchSync.notifyAll();
+            }
+            return watch;
+        }
+    }
+
+    void finish(TaskController taskController, Watch watch, boolean offloadable) {
+        StackTraceElement[] stackTrace;
+        synchronized (watchSync) {
+            watch.active = false;
+            stackTrace = watch.stackTrace;
+            watch.stackTrace = null;
+            watch.thread = null;
+            for (int i = activeWatchList.size() - 1; i >= 0; i--) {
+                if (activeWatchList.get(i) == watch) {
+                    activeWatchList.remove(i);
+                    break;
+                }
+            }
+            freeWatchList.add(watch);
+        }
+        long costTime = taskController.runCostTime;
+        if (costTime <= frameBudgetMillis) {
+            return;
+        }
+        Offender offender;
+        synchronized (sync) {
+            offender = offenderMap.get(taskController.name);
+            if (offender == null) {
+                offender = new Offender(taskController.name, offloadable);
+                offenderMap.put(taskController.name, offender);
+            }
+            offender.overrunCount++;
+            offender.totalOverrunTime += costTime - frameBudgetMillis;
+            offender.maxCostTime = Math.max(offender.maxCostTime, costTime);
+            offender.offloadable &= offloadable;
+            if (stackTrace != null) {
+                offender.stackTrace = stackTrace;
+            }
+            offender = offender.copy();
+        }
+        TaskGraphModule.logWarn("task:" + taskController.name + " overrun main thread " + costTime + "ms, frame budget " + frameBudgetMillis + "ms"
+                + (offloadable ? ", no main thread task depends on it, it can run in background" : ""));
+        OverrunListener listener = overrunListener;
+        if (listener != null) {
+            listener.onOverrun(offender);
+        }
+    }
+
+    private void watchLoop() {
+        synchronized (watchSync) {
+            while (true) {
+                long now = System.nanoTime();
+                long nextDeadline = Long.MAX_VALUE;
+                for (int i = 0; i < activeWatchList.size(); i++) {
+                    Watch watch = activeWatchList.get(i);
+                    if (!watch.active || watch.stackTrace != null) {
+                        continue;
+                    }
+                    if (watch.deadline - now <= 0) {
+                        watch.stackTrace = watch.thread.getStackTrace();
+                    } else {
+                        nextDeadline = Math.min(nextDeadline, watch.deadline);
+                    }
+                }
+                try {
+                    if (nextDeadline == Long.MAX_VALUE) {
+                        watchSync.wait();
+                    } else {
+                        long waitTime = TimeUnit.NANOSECONDS.toMillis(nextDeadline - now);
+                        watchSync.wait(Math.max(1, waitTime));
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }
+        }
+    }
+
+    public interface OverrunListener {
+
+        void onOverrun(Offender offender);
+    }
+
+    static class Watch {
+        Thread thread;
+        long deadline;
+        boolean active;
+        StackTraceElement[] stackTrace;
+    }
+
+    public static final class Offender {
+        private final String taskName;
+        private int overrunCount;
+        private long totalOverrunTime;
+        private long maxCostTime;
+        private boolean offloadable;
+        private StackTraceElement[] stackTrace;
+
+        Offender(String taskName, boolean offloadable) {
+            this.taskName = taskName;
+            this.offloadable = offloadable;
+        }
+
+        public String getTaskName() {
+            return taskName;
+        }
+
+        public int getOverrunCount() {
+            return overrunCount;
+        }
+
+        public long getTotalOverrunTime() {
+            return totalOverrunTime;
+        }
+
+        public long getMaxCostTime() {
+            return maxCostTime;
+        }
+
+        public boolean isOffloadable() {
+            return offloadable;
+        }
+
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace;
+        }
+
+        Offender copy() {
+            Offender offender = new Offender(taskName, offloadable);
+            offender.overrunCount = overrunCount;
+            offender.totalOverrunTime = totalOverrunTime;
+            offender.maxCostTime = maxCostTime;
+            offender.stackTrace = stackTrace;
+            return offender;
+        }
+
+        @Override
+        public String toString() {
+            return "Offender " + taskName + " [overrunCount: " + overrunCount + ", totalOverrunTime: " + totalOverrunTime
+                    + ", maxCostTime: " + maxCostTime + ", offloadable: " + offloadable + "]";
+        }
+    }
+}
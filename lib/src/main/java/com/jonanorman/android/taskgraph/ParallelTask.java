@@ -0,0 +1,116 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelTask<T> extends Task {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private final Collection<? extends T> items;
+    private final ItemFunction<T> itemFunction;
+    private int minChunkSize = 1;
+    private int maxWorkerCount;
+
+    public ParallelTask(Collection<? extends T> items, ItemFunction<T> itemFunction) {
+        this(null, items, itemFunction);
+    }
+
+    public ParallelTask(String name, Collection<? extends T> items, ItemFunction<T> itemFunction) {
+        super(name);
+        if (items == null || itemFunction == null) {
+            throw new IllegalArgumentException("parallel task items and itemFunction can not be null");
+        }
+        this.items = items;
+        this.itemFunction = itemFunction;
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public ParallelTask<T> setMinChunkSize(int minChunkSize) {
+        if (minChunkSize <= 0) {
+            throw new IllegalArgumentException("min chunk size " + minChunkSize + " must be positive");
+        }
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
+
+    public int getMaxWorkerCount() {
+        return maxWorkerCount;
+    }
+
+    public ParallelTask<T> setMaxWorkerCount(int maxWorkerCount) {
+        this.maxWorkerCount = maxWorkerCount;
+        return this;
+    }
+
+    @Override
+    public void run() {
+        Object[] itemArray = items.toArray();
+        if (itemArray.length == 0) {
+            return;
+        }
+        TaskGraphExecutor executor = TaskController.getRunningExecutor(this);
+        int workerCount = executor == null ? 1 : getWorkerCount(itemArray.length, executor.getLanePoolSize(lane));
+        ChunkCursor cursor = new ChunkCursor(itemArray, workerCount);
+        if (workerCount > 1) {
+            List<Task> workerList = new ArrayList<>(workerCount - 1);
+            for (int i = 1; i < workerCount; i++) {
+                Task worker = new Task(name + "-part" + i, cursor, false, onlyMainProcess);
+                worker.lane = lane;
+                worker.priority = priority;
+                worker.threadPriority = threadPriority;
+                workerList.add(worker);
+            }
+            spawnTask(workerList.toArray(new Task[0]));
+        }
+        cursor.run();
+    }
+
+    private int getWorkerCount(int itemCount, int poolSize) {
+        int workerCount = Math.min(CPU_COUNT, poolSize);
+        if (maxWorkerCount > 0) {
+            workerCount = Math.min(workerCount, maxWorkerCount);
+        }
+        workerCount = Math.min(workerCount, (itemCount + minChunkSize - 1) / minChunkSize);
+        return Math.max(workerCount, 1);
+    }
+
+    public interface ItemFunction<T> {
+
+        void apply(T item);
+    }
+
+    private class ChunkCursor implements Runnable {
+        private final Object[] itemArray;
+        private final int workerCount;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+
+        ChunkCursor(Object[] itemArray, int workerCount) {
+            this.itemArray = itemArray;
+            this.workerCount = workerCount;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int start = nextIndex.get();
+                int remaining = itemArray.length - start;
+                if (remaining <= 0) {
+                    return;
+                }
+                int chunkSize = Math.min(remaining, Math.max(minChunkSize, remaining / (workerCount * 2)));
+                if (!nextIndex.compareAndSet(start, start + chunkSize)) {
+                    continue;
+                }
+                for (int i = start; i < start + chunkSize; i++) {
+                    itemFunction.apply((T) itemArray[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ReachabilityIndex<V> {
+
+    private final List<DirectedGraph.Vertex<V>> sortList;
+    private final Map<DirectedGraph.Vertex<V>, Integer> indexMap;
+    private final long[][] ancestors;
+    private final long[][] descendants;
+    private final int wordSize;
+
+    private ReachabilityIndex(DirectedGraph<V> graph, List<DirectedGraph.Vertex<V>> sortList) {
+        int size = sortList.size();
+        this.sortList = sortList;
+        this.indexMap = new HashMap<>();
+        this.wordSize = (size + 63) >>> 6;
+        this.ancestors = new long[size][wordSize];
+        this.descendants = new long[size][wordSize];
+        for (int i = 0; i < size; i++) {
+            indexMap.put(sortList.get(i), i);
+        }
+        for (int i = 0; i < size; i++) {
+            long[] ancestor = ancestors[i];
+            for (DirectedGraph.Edge<V> edge : graph.getIncomingEdgeSet(sortList.get(i))) {
+                int from = indexMap.get(edge.getFrom());
+                set(ancestor, from);
+                or(ancestor, ancestors[from]);
+            }
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            long[] descendant = descendants[i];
+            for (DirectedGraph.Edge<V> edge : graph.getOutgoingEdgeSet(sortList.get(i))) {
+                int to = indexMap.get(edge.getTo());
+                set(descendant, to);
+                or(descendant, descendants[to]);
+            }
+        }
+    }
+
+    static <V> ReachabilityIndex<V> build(DirectedGraph<V> graph) {
+        List<DirectedGraph.Vertex<V>> sortList = graph.topologicalSort();
+        if (sortList == null) {
+            return null;
+        }
+        return new ReachabilityIndex<>(graph, sortList);
+    }
+
+    int size() {
+        return sortList.size();
+    }
+
+    int indexOf(DirectedGraph.Vertex<V> vertex) {
+        Integer index = indexMap.get(vertex);
+        return index == null ? -1 : index;
+    }
+
+    DirectedGraph.Vertex<V> getVertex(int index) {
+        return sortList.get(index);
+    }
+
+    boolean isAncestor(DirectedGraph.Vertex<V> ancestor, DirectedGraph.Vertex<V> vertex) {
+        int ancestorIndex = indexOf(ancestor);
+        int vertexIndex = indexOf(vertex);
+        if (ancestorIndex < 0 || vertexIndex < 0) {
+            return false;
+        }
+        return isAncestor(ancestorIndex, vertexIndex);
+    }
+
+    boolean isAncestor(int ancestorIndex, int vertexIndex) {
+        return contains(descendants[ancestorIndex], vertexIndex);
+    }
+
+    List<DirectedGraph.Vertex<V>> ancestorsOf(DirectedGraph.Vertex<V> vertex) {
+        return toVertexList(ancestors[requireIndex(vertex)]);
+    }
+
+    List<DirectedGraph.Vertex<V>> descendantsOf(DirectedGraph.Vertex<V> vertex) {
+        return toVertexList(descendants[requireIndex(vertex)]);
+    }
+
+    long[] getAncestorBits(int index) {
+        return ancestors[index];
+    }
+
+    long[] getDescendantBits(int index) {
+        return descendants[index];
+    }
+
+    long[] newBits() {
+        return new long[wordSize];
+    }
+
+    static boolean contains(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    static void or(long[] bits, long[] other) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other[i];
+        }
+    }
+
+    private int requireIndex(DirectedGraph.Vertex<V> vertex) {
+        int index = indexOf(vertex);
+        if (index < 0) {
+            throw new IllegalArgumentException("not exist vertex " + vertex);
+        }
+        return index;
+    }
+
+    private List<DirectedGraph.Vertex<V>> toVertexList(long[] bits) {
+        List<DirectedGraph.Vertex<V>> vertexList = new ArrayList<>();
+        for (int i = 0; i < bits.length; i++) {
+            long word = bits[i];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                vertexList.add(sortList.get((i << 6) + bit));
+                word &= word - 1;
+            }
+        }
+        return vertexList;
+    }
+}
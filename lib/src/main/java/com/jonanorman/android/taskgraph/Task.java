@@ -1,8 +1,15 @@
 package com.jonanorman.android.taskgraph;
 
+import android.app.Activity;
+import android.os.Process;
+
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -13,11 +20,21 @@ public class Task implements Cloneable, Runnable {
     final Set<TaskListener> listenerSet;
     final Set<TaskInterceptor> taskInterceptorSet;
     final Set<Object> dependsSet;
+    final Map<String, Integer> resourceMap;
+    final Set<Class<?>> activitySet;
+    final Set<TaskChannel<?>> channelSet;
     boolean mainThread;
     boolean onlyMainProcess;
     String name;
+    String lane;
+    String serialQueue;
+    String memoKey;
+    String checkpointKey;
     Runnable runnable;
     int priority;
+    ThreadPriority threadPriority;
+    private volatile Set<TaskListener> listenerSnapshot;
+    private volatile Set<Object> dependsSnapshot;
 
     public Task() {
         this((String) null);
@@ -45,6 +62,9 @@ public class Task implements Cloneable, Runnable {
         this.onlyMainProcess = onlyMainProcess;
         this.listenerSet = new HashSet<>();
         this.dependsSet = new HashSet<>();
+        this.resourceMap = new HashMap<>();
+        this.activitySet = new HashSet<>();
+        this.channelSet = new HashSet<>();
         this.taskInterceptorSet = new LinkedHashSet<>();
     }
 
@@ -57,6 +77,14 @@ public class Task implements Cloneable, Runnable {
         this.dependsSet.addAll(task.dependsSet);
         this.mainThread = task.mainThread;
         this.onlyMainProcess = task.onlyMainProcess;
+        this.lane = task.lane;
+        this.serialQueue = task.serialQueue;
+        this.memoKey = task.memoKey;
+        this.checkpointKey = task.checkpointKey;
+        this.threadPriority = task.threadPriority;
+        this.resourceMap = new HashMap<>(task.resourceMap);
+        this.activitySet = new HashSet<>(task.activitySet);
+        this.channelSet = new HashSet<>(task.channelSet);
         this.runnable = runnable;
         this.listenerSet = new HashSet<>();
         this.listenerSet.addAll(task.listenerSet);
@@ -83,6 +111,73 @@ public class Task implements Cloneable, Runnable {
         return this;
     }
 
+    public Task setLane(String lane) {
+        this.lane = lane;
+        return this;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public Task setSerialQueue(String serialQueue) {
+        this.serialQueue = serialQueue;
+        return this;
+    }
+
+    public String getSerialQueue() {
+        return serialQueue;
+    }
+
+    public Task setMemoKey(String memoKey) {
+        this.memoKey = memoKey;
+        return this;
+    }
+
+    public String getMemoKey() {
+        return memoKey;
+    }
+
+    public Task setCheckpointKey(String checkpointKey) {
+        this.checkpointKey = checkpointKey;
+        return this;
+    }
+
+    public String getCheckpointKey() {
+        return checkpointKey;
+    }
+
+    public Task setThreadPriority(ThreadPriority threadPriority) {
+        this.threadPriority = threadPriority;
+        return this;
+    }
+
+    public ThreadPriority getThreadPriority() {
+        return threadPriority;
+    }
+
+    public Task requireResource(String resource) {
+        return requireResource(resource, 1);
+    }
+
+    public Task requireResource(String resource, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("resource " + resource + " count must be greater than 0, count " + count);
+        }
+        resourceMap.put(resource, count);
+        return this;
+    }
+
+    public Task removeResource(String resource) {
+        resourceMap.remove(resource);
+        return this;
+    }
+
+    public Task clearResource() {
+        resourceMap.clear();
+        return this;
+    }
+
     public Task setName(String name) {
         this.name = name;
         return this;
@@ -92,28 +187,51 @@ public class Task implements Cloneable, Runnable {
         return name;
     }
 
+    Set<TaskListener> getListenerSnapshot() {
+        Set<TaskListener> snapshot = listenerSnapshot;
+        if (snapshot == null) {
+            snapshot = listenerSet.isEmpty() ? Collections.<TaskListener>emptySet() : Collections.unmodifiableSet(new HashSet<>(listenerSet));
+            listenerSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    Set<Object> getDependsSnapshot() {
+        Set<Object> snapshot = dependsSnapshot;
+        if (snapshot == null) {
+            snapshot = dependsSet.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(dependsSet));
+            dependsSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
     public Task addTaskListener(TaskListener taskListener) {
         listenerSet.add(taskListener);
+        listenerSnapshot = null;
         return this;
     }
 
     public Task removeTaskListener(TaskListener taskListener) {
         listenerSet.add(taskListener);
+        listenerSnapshot = null;
         return this;
     }
 
     public Task clearTaskListener() {
         listenerSet.clear();
+        listenerSnapshot = null;
         return this;
     }
 
     public Task dependsOn(String name) {
         dependsSet.add(name);
+        dependsSnapshot = null;
         return this;
     }
 
     public Task dependsOn(Task task) {
         dependsSet.add(task);
+        dependsSnapshot = null;
         return this;
     }
 
@@ -131,6 +249,7 @@ public class Task implements Cloneable, Runnable {
         for (String name : names) {
             dependsSet.add(name);
         }
+        dependsSnapshot = null;
         return this;
     }
 
@@ -138,6 +257,7 @@ public class Task implements Cloneable, Runnable {
         for (Object name : names) {
             dependsSet.add(name);
         }
+        dependsSnapshot = null;
         return this;
     }
 
@@ -145,12 +265,68 @@ public class Task implements Cloneable, Runnable {
         for (Task task : tasks) {
             dependsSet.add(task);
         }
+        dependsSnapshot = null;
+        return this;
+    }
+
+    public Task dependsOn(TaskGraph... taskGraphs) {
+        for (TaskGraph taskGraph : taskGraphs) {
+            dependsSet.add(taskGraph);
+        }
+        dependsSnapshot = null;
+        return this;
+    }
+
+    public Task dependsOn(TaskEvent... taskEvents) {
+        for (TaskEvent taskEvent : taskEvents) {
+            dependsSet.add(taskEvent);
+        }
+        dependsSnapshot = null;
         return this;
     }
 
 
     public Task clearDepends() {
         dependsSet.clear();
+        dependsSnapshot = null;
+        return this;
+    }
+
+    public Task streamTo(TaskChannel<?> channel) {
+        channelSet.add(channel);
+        return this;
+    }
+
+    public Task streamFrom(TaskChannel<?> channel) {
+        dependsSet.add(channel);
+        dependsSnapshot = null;
+        return this;
+    }
+
+    public Task clearStream() {
+        channelSet.clear();
+        Iterator<Object> iterator = dependsSet.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() instanceof TaskChannel) {
+                iterator.remove();
+            }
+        }
+        dependsSnapshot = null;
+        return this;
+    }
+
+    public Task neededBy(Class<?>... activityClasses) {
+        for (Class<?> activityClass : activityClasses) {
+            if (!Activity.class.isAssignableFrom(activityClass)) {
+                throw new IllegalArgumentException(activityClass + " is not an Activity");
+            }
+            activitySet.add(activityClass);
+        }
+        return this;
+    }
+
+    public Task clearNeededBy() {
+        activitySet.clear();
         return this;
     }
 
@@ -169,6 +345,11 @@ public class Task implements Cloneable, Runnable {
         return this;
     }
 
+    public Task spawnTask(Task... tasks) {
+        TaskController.spawnTask(this, tasks);
+        return this;
+    }
+
     @Override
     public void run() {
         if (runnable != null) {
@@ -178,7 +359,7 @@ public class Task implements Cloneable, Runnable {
 
     @Override
     public String toString() {
-        return "Task " + name + " [mainThread: " + mainThread + ", onlyMainProcess: " + onlyMainProcess+ ", priority: " + priority + "]";
+        return "Task " + name + " [mainThread: " + mainThread + ", onlyMainProcess: " + onlyMainProcess+ ", priority: " + priority + ", threadPriority: " + threadPriority + ", lane: " + lane + ", serialQueue: " + serialQueue + "]";
     }
 
     public void setPriority(int priority) {
@@ -189,6 +370,22 @@ public class Task implements Cloneable, Runnable {
         return priority;
     }
 
+    public enum ThreadPriority {
+        LOWEST(Process.THREAD_PRIORITY_LOWEST, Thread.MIN_PRIORITY),
+        BACKGROUND(Process.THREAD_PRIORITY_BACKGROUND, Thread.NORM_PRIORITY - 2),
+        DEFAULT(Process.THREAD_PRIORITY_DEFAULT, Thread.NORM_PRIORITY),
+        FOREGROUND(Process.THREAD_PRIORITY_FOREGROUND, Thread.NORM_PRIORITY + 1),
+        DISPLAY(Process.THREAD_PRIORITY_DISPLAY, Thread.NORM_PRIORITY + 3);
+
+        final int niceValue;
+        final int javaPriority;
+
+        ThreadPriority(int niceValue, int javaPriority) {
+            this.niceValue = niceValue;
+            this.javaPriority = javaPriority;
+        }
+    }
+
     public interface TaskListener {
 
         void doFirst(Task task);
@@ -196,6 +393,9 @@ public class Task implements Cloneable, Runnable {
         void doLast(Task task, long time, TimeUnit timeUnit);
     }
 
+    public interface AsyncTaskListener extends TaskListener {
+    }
+
     public interface TaskInterceptor {
 
         void onIntercept(TaskInterceptorChain interceptorChain);
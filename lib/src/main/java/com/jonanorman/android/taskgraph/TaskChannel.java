@@ -0,0 +1,187 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+public final class TaskChannel<T> {
+
+    private final int capacity;
+    private final Object sync = new Object();
+    private final Map<TaskGraphController, ChannelRun<T>> runMap;
+
+    public TaskChannel(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("channel capacity " + capacity + " must be positive");
+        }
+        this.capacity = capacity;
+        this.runMap = new HashMap<>();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean put(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("channel item can not be null");
+        }
+        List<TaskController> waiterList;
+        synchronized (sync) {
+            ChannelRun<T> channelRun = getRun();
+            while (channelRun != null && !channelRun.closed && channelRun.itemQueue.size() >= capacity) {
+                try {
+                    sync.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (channelRun == null || channelRun.closed) {
+                return false;
+            }
+            channelRun.itemQueue.offer(item);
+            sync.notifyAll();
+            waiterList = channelRun.takeReadyWaiter();
+        }
+        runReadyWaiter(waiterList);
+        return true;
+    }
+
+    public T take() {
+        synchronized (sync) {
+            ChannelRun<T> channelRun = getRun();
+            while (channelRun != null && !channelRun.closed && channelRun.itemQueue.isEmpty()) {
+                try {
+                    sync.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (channelRun == null) {
+                return null;
+            }
+            T item = channelRun.itemQueue.poll();
+            if (item != null) {
+                sync.notifyAll();
+            }
+            return item;
+        }
+    }
+
+    public void close() {
+        ChannelRun<T> channelRun;
+        synchronized (sync) {
+            channelRun = getRun();
+        }
+        if (channelRun != null) {
+            close(channelRun.graphController);
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (sync) {
+            ChannelRun<T> channelRun = getRun();
+            return channelRun == null || channelRun.closed;
+        }
+    }
+
+    void open(TaskGraphController graphController) {
+        synchronized (sync) {
+            runMap.put(graphController, new ChannelRun<T>(graphController, capacity));
+        }
+    }
+
+    void close(TaskGraphController graphController) {
+        List<TaskController> waiterList;
+        synchronized (sync) {
+            ChannelRun<T> channelRun = runMap.get(graphController);
+            if (channelRun == null || channelRun.closed) {
+                return;
+            }
+            channelRun.closed = true;
+            sync.notifyAll();
+            waiterList = channelRun.takeReadyWaiter();
+        }
+        runReadyWaiter(waiterList);
+    }
+
+    void cancel(TaskGraphController graphController) {
+        close(graphController);
+        release(graphController);
+    }
+
+    void release(TaskGraphController graphController) {
+        synchronized (sync) {
+            if (runMap.remove(graphController) != null) {
+                sync.notifyAll();
+            }
+        }
+    }
+
+    boolean awaitReady(TaskGraphController graphController, TaskController waiter) {
+        synchronized (sync) {
+            ChannelRun<T> channelRun = runMap.get(graphController);
+            if (channelRun == null || channelRun.closed || !channelRun.itemQueue.isEmpty()) {
+                return true;
+            }
+            channelRun.readyWaiterList.add(waiter);
+            return false;
+        }
+    }
+
+    private ChannelRun<T> getRun() {
+        TaskGraphController graphController = TaskController.getRunningGraphController();
+        if (graphController != null && graphController.containsTaskChannel(this)) {
+            return runMap.get(graphController);
+        }
+        if (runMap.isEmpty()) {
+            return null;
+        }
+        if (runMap.size() == 1) {
+            return runMap.values().iterator().next();
+        }
+        throw new IllegalStateException(this + " is streaming in " + runMap.size()
+                + " running graphs, call it from its producer or consumer task");
+    }
+
+    private void runReadyWaiter(List<TaskController> waiterList) {
+        if (waiterList == null) {
+            return;
+        }
+        for (int i = 0; i < waiterList.size(); i++) {
+            waiterList.get(i).onReady();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TaskChannel capacity " + capacity;
+    }
+
+    private static class ChannelRun<T> {
+        final TaskGraphController graphController;
+        final Queue<T> itemQueue;
+        final List<TaskController> readyWaiterList;
+        boolean closed;
+
+        ChannelRun(TaskGraphController graphController, int capacity) {
+            this.graphController = graphController;
+            this.itemQueue = new ArrayDeque<>(capacity);
+            this.readyWaiterList = new ArrayList<>();
+        }
+
+        List<TaskController> takeReadyWaiter() {
+            if (readyWaiterList.isEmpty()) {
+                return null;
+            }
+            List<TaskController> waiterList = new ArrayList<>(readyWaiterList);
+            readyWaiterList.clear();
+            return waiterList;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.jonanorman.android.taskgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+class TaskCheckpoint {
+
+    private static final String FILE_NAME = "taskgraph_checkpoint";
+    private static final int COMPACT_MIN_RECORD = 64;
+
+    private static final Object SYNC = new Object();
+    private static final Map<String, String> CHECKPOINT_MAP = new HashMap<>();
+    private static File CHECKPOINT_FILE;
+    private static DataOutputStream OUTPUT_STREAM;
+    private static boolean LOADED;
+
+    static void setFile(File file) {
+        synchronized (SYNC) {
+            closeOutput();
+            CHECKPOINT_FILE = file;
+            CHECKPOINT_MAP.clear();
+            LOADED = false;
+        }
+    }
+
+    static boolean isDone(String name, String key) {
+        synchronized (SYNC) {
+            load();
+            return key.equals(CHECKPOINT_MAP.get(name));
+        }
+    }
+
+    static void complete(String name, String key) {
+        synchronized (SYNC) {
+            load();
+            if (key.equals(CHECKPOINT_MAP.get(name))) {
+                return;
+            }
+            CHECKPOINT_MAP.put(name, key);
+            try {
+                if (OUTPUT_STREAM == null) {
+                    OUTPUT_STREAM = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(), true)));
+                }
+                OUTPUT_STREAM.writeUTF(name);
+                OUTPUT_STREAM.writeUTF(key);
+                OUTPUT_STREAM.flush();
+            } catch (IOException e) {
+                TaskGraphModule.logWarn("write checkpoint " + name + " fail, " + e);
+                closeOutput();
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (SYNC) {
+            closeOutput();
+            CHECKPOINT_MAP.clear();
+            LOADED = true;
+            File file = getFile();
+            if (file.exists() && !file.delete()) {
+                TaskGraphModule.logWarn("delete checkpoint " + file + " fail");
+            }
+        }
+    }
+
+    private static File getFile() {
+        if (CHECKPOINT_FILE == null) {
+            String processName = TaskGraphModule.getProcessName();
+            String fileName = TaskGraphModule.isMainProcess() || processName == null
+                    ? FILE_NAME : FILE_NAME + "_" + processName.replaceAll("[^A-Za-z0-9._]", "_");
+            CHECKPOINT_FILE = new File(TaskGraphModule.getApplication().getNoBackupFilesDir(), fileName);
+        }
+        return CHECKPOINT_FILE;
+    }
+
+    private static void load() {
+        if (LOADED) {
+            return;
+        }
+        LOADED = true;
+        File file = getFile();
+        if (!file.isFile()) {
+            return;
+        }
+        int recordCount = 0;
+        boolean torn = false;
+        try {
+            byte[] bytes = readFile(file);
+            ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes);
+            DataInputStream inputStream = new DataInputStream(byteStream);
+            while (byteStream.available() > 0) {
+                try {
+                    String name = inputStream.readUTF();
+                    String key = inputStream.readUTF();
+                    CHECKPOINT_MAP.put(name, key);
+                    recordCount++;
+                } catch (IOException e) {
+                    torn = true;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            TaskGraphModule.logWarn("read checkpoint " + file + " fail, " + e);
+            return;
+        }
+        if (torn || (recordCount > COMPACT_MIN_RECORD && recordCount > CHECKPOINT_MAP.size() * 2)) {
+            compact(file);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void compact(File file) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                for (Map.Entry<String, String> entry : CHECKPOINT_MAP.entrySet()) {
+                    outputStream.writeUTF(entry.getKey());
+                    outputStream.writeUTF(entry.getValue());
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("rename " + tempFile + " fail");
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            TaskGraphModule.logWarn("compact checkpoint " + file + " fail, " + e);
+        }
+    }
+
+    private static void closeOutput() {
+        if (OUTPUT_STREAM == null) {
+            return;
+        }
+        try {
+            OUTPUT_STREAM.close();
+        } catch (IOException ignore) {
+        }
+        OUTPUT_STREAM = null;
+    }
+}
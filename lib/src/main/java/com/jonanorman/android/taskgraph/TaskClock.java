@@ -0,0 +1,13 @@
+package com.jonanorman.android.taskgraph;
+
+public interface TaskClock {
+
+    TaskClock SYSTEM = new TaskClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
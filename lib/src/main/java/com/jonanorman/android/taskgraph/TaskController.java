@@ -1,56 +1,115 @@
 package com.jonanorman.android.taskgraph;
 
+import android.os.Process;
 import android.os.Trace;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 class TaskController implements Task.TaskInterceptorChain, Runnable {
 
+    private static final ThreadLocal<TaskController> RUNNING_CONTROLLER = new ThreadLocal<>();
+    private static final int CONTROLLER_HASH = "TaskController".hashCode();
+    private static final Task.TaskInterceptor[] EMPTY_INTERCEPTORS = new Task.TaskInterceptor[0];
+
     final Task task;
-    final Set<Task.TaskListener> listenerSet;
-    final Queue<Task.TaskInterceptor> taskInterceptorQueue;
+    Set<Task.TaskListener> listenerSet;
+    final Task.TaskInterceptor[] taskInterceptors;
     final boolean mainThread;
     final boolean onlyMainProcess;
     final int priority;
     final String name;
-    final Set<Object> dependsOnSet;
-    private final TaskGraphController graphController;
+    final String lane;
+    final String serialQueue;
+    final String memoKey;
+    final String checkpointKey;
+    final Task.ThreadPriority threadPriority;
+    final Map<String, Integer> resourceMap;
+    final Set<Class<?>> activitySet;
+    final Set<TaskChannel<?>> channelSet;
+    final boolean needResource;
+    Set<Object> dependsOnSet;
+    final TaskGraphController graphController;
+    volatile boolean boosted;
+    TaskEvent taskEvent;
+    TaskChannel<?> taskChannel;
+    DirectedGraph.Vertex<TaskController> vertex;
+    boolean scheduled;
+    long laneEnqueueTime;
+    long runCostTime;
+    boolean offloadable;
+    MainThreadWatchdog.Watch watch;
     private final Object sync;
+    private final Task.TaskInterceptor realRunInterceptor;
+    private final Runnable mainThreadInterceptRunnable;
+    private int interceptorIndex;
     private boolean canceled;
     private long runStartTime;
-    private long runCostTime;
     private long interceptStartTime;
-    private boolean interceptLogEnable;
+    private int previousThreadPriority;
+    private boolean niceThreadPriority;
     private TaskControllerListener controllerListener;
     private volatile Task.TaskInterceptor currentInterceptor;
     private boolean proceed;
     private boolean runOver;
+    private boolean ownListenerSet;
+    private boolean ownDependsOnSet;
 
     TaskController(Task task, TaskGraphController graphController) {
         this.task = task;
         this.graphController = graphController;
         this.sync = new Object();
         this.name = task.name;
+        this.lane = task.lane;
+        this.serialQueue = task.serialQueue;
+        this.memoKey = task.memoKey;
+        this.checkpointKey = task.checkpointKey;
+        this.threadPriority = task.mainThread ? null : task.threadPriority;
+        this.resourceMap = task.resourceMap.isEmpty() ? Collections.<String, Integer>emptyMap() : new HashMap<>(task.resourceMap);
+        this.activitySet = task.activitySet.isEmpty() ? Collections.<Class<?>>emptySet() : new HashSet<>(task.activitySet);
+        this.channelSet = task.channelSet.isEmpty() ? Collections.<TaskChannel<?>>emptySet() : new HashSet<>(task.channelSet);
+        this.needResource = serialQueue != null || !resourceMap.isEmpty();
         this.priority = task.priority;
         this.mainThread = task.mainThread;
         this.onlyMainProcess = task.onlyMainProcess;
-        this.listenerSet = new HashSet<>();
-        this.listenerSet.addAll(task.listenerSet);
-        this.dependsOnSet = new HashSet<>();
-        this.dependsOnSet.addAll(task.dependsSet);
-        this.taskInterceptorQueue = new LinkedList<>();
-        this.taskInterceptorQueue.addAll(task.taskInterceptorSet);
-        this.taskInterceptorQueue.add(new RealRunTaskInterceptor());
+        this.listenerSet = task.getListenerSnapshot();
+        this.dependsOnSet = task.getDependsSnapshot();
+        if (task.taskInterceptorSet.isEmpty()) {
+            this.taskInterceptors = EMPTY_INTERCEPTORS;
+            this.realRunInterceptor = null;
+            this.mainThreadInterceptRunnable = null;
+        } else {
+            this.taskInterceptors = task.taskInterceptorSet.toArray(new Task.TaskInterceptor[0]);
+            this.realRunInterceptor = new RealRunTaskInterceptor();
+            this.mainThreadInterceptRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    nextMainThreadIntercept();
+                }
+            };
+        }
     }
 
     public final void run() {
-        interceptStartTime = System.currentTimeMillis();
-        interceptLogEnable = taskInterceptorQueue.size() > 1;
+        if (taskInterceptors.length == 0) {
+            if (!graphController.isFinished()) {
+                realRun();
+            }
+            return;
+        }
+        synchronized (sync) {
+            interceptorIndex = 0;
+            proceed = false;
+            runOver = false;
+            currentInterceptor = null;
+        }
+        interceptStartTime = graphController.clock.currentTimeMillis();
         if (mainThread) {
             nextMainThreadIntercept();
         } else {
@@ -59,6 +118,9 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
     }
 
     private void nextMainThreadIntercept() {
+        synchronized (sync) {
+            proceed = false;
+        }
         runNextIntercept();
     }
 
@@ -93,25 +155,35 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
     }
 
     private boolean runNextIntercept() {
-        Task.TaskInterceptor interceptor = taskInterceptorQueue.poll();
+        Task.TaskInterceptor interceptor;
         synchronized (sync) {
             if (isFinish()) {
                 return false;
             }
-            if (interceptor == null) {
+            if (interceptorIndex > taskInterceptors.length) {
                 runOver = true;
                 return false;
             }
+            interceptor = interceptorIndex < taskInterceptors.length ? taskInterceptors[interceptorIndex] : realRunInterceptor;
+            interceptorIndex++;
         }
-        if (currentInterceptor != null &&!(currentInterceptor instanceof RealRunTaskInterceptor)) {
+        if (currentInterceptor != null && currentInterceptor != realRunInterceptor) {
             TaskGraphModule.logVerbose(currentInterceptor + " interrupt proceed");
         }
-        if (!(interceptor instanceof RealRunTaskInterceptor)) {
+        if (interceptor != realRunInterceptor) {
             TaskGraphModule.logVerbose(interceptor + " interrupting");
         }
 
         currentInterceptor = interceptor;
         interceptor.onIntercept(this);
+        if (!graphController.executor.isAsyncInterceptSupported()) {
+            synchronized (sync) {
+                if (!proceed && !isFinish()) {
+                    throw new IllegalStateException("task:" + name + " interceptor " + interceptor
+                            + " must proceed or cancel before onIntercept returns on " + graphController.executor.getClass().getSimpleName());
+                }
+            }
+        }
         return true;
     }
 
@@ -155,12 +227,69 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
             sync.notifyAll();
         }
         if (mainThread) {
-            TaskGraphModule.runInMainThread(new Runnable() {
-                @Override
-                public void run() {
-                    nextMainThreadIntercept();
+            graphController.executor.runInMainThread(mainThreadInterceptRunnable);
+        }
+    }
+
+    private void realRun() {
+        logStart();
+        if (controllerListener != null) {
+            controllerListener.onTaskControllerFist(this);
+        }
+        if (!listenerSet.isEmpty()) {
+            for (Task.TaskListener taskCallback : listenerSet) {
+                TaskListenerDispatcher.doFirst(taskCallback, task);
+            }
+        }
+        TaskController previousController = RUNNING_CONTROLLER.get();
+        RUNNING_CONTROLLER.set(this);
+        try {
+            if (threadPriority == null) {
+                task.run();
+            } else {
+                applyThreadPriority();
+                try {
+                    task.run();
+                } finally {
+                    restoreThreadPriority();
                 }
-            });
+            }
+        } finally {
+            RUNNING_CONTROLLER.set(previousController);
+        }
+        logEnd();
+        if (!listenerSet.isEmpty()) {
+            for (Task.TaskListener taskCallback : listenerSet) {
+                TaskListenerDispatcher.doLast(taskCallback, task, runCostTime, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (controllerListener != null) {
+            controllerListener.onTaskControllerLast(this);
+        }
+    }
+
+    private void applyThreadPriority() {
+        try {
+            previousThreadPriority = Process.getThreadPriority(Process.myTid());
+            Process.setThreadPriority(threadPriority.niceValue);
+            niceThreadPriority = true;
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            previousThreadPriority = thread.getPriority();
+            thread.setPriority(threadPriority.javaPriority);
+            niceThreadPriority = false;
+        }
+    }
+
+    private void restoreThreadPriority() {
+        if (!niceThreadPriority) {
+            Thread.currentThread().setPriority(previousThreadPriority);
+            return;
+        }
+        try {
+            Process.setThreadPriority(previousThreadPriority);
+        } catch (RuntimeException e) {
+            TaskGraphModule.logWarn("task:" + name + " restore thread priority " + previousThreadPriority + " fail " + e);
         }
     }
 
@@ -168,24 +297,10 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
 
         @Override
         public void onIntercept(Task.TaskInterceptorChain interceptorChain) {
-            if (interceptLogEnable) {
-                TaskGraphModule.logDebug(task.getName() + " intercept cost time " + (System.currentTimeMillis() - interceptStartTime));
-            }
-            logStart();
-            if (controllerListener != null) {
-                controllerListener.onTaskControllerFist(TaskController.this);
-            }
-            for (Task.TaskListener taskCallback : listenerSet) {
-                taskCallback.doFirst(task);
-            }
-            task.run();
-            for (Task.TaskListener taskCallback : listenerSet) {
-                taskCallback.doLast(task, runCostTime, TimeUnit.MILLISECONDS);
-            }
-            logEnd();
-            if (controllerListener != null) {
-                controllerListener.onTaskControllerLast(TaskController.this);
+            if (TaskGraphModule.isLogEnable()) {
+                TaskGraphModule.logDebug(task.getName() + " intercept cost time " + (graphController.clock.currentTimeMillis() - interceptStartTime));
             }
+            realRun();
             synchronized (sync) {
                 runOver = true;
             }
@@ -203,29 +318,127 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(task, "TaskController");
+        return 31 * (31 + Objects.hashCode(task)) + CONTROLLER_HASH;
     }
 
     private void logStart() {
-        runStartTime = System.currentTimeMillis();
+        runStartTime = graphController.clock.currentTimeMillis();
         if (TaskGraphModule.isEnableTrace()) {
             Trace.beginSection(name);
         }
-        TaskGraphModule.logVerbose("task:" + name + " start");
+        if (TaskGraphModule.isLogEnable()) {
+            TaskGraphModule.logVerbose("task:" + name + " start");
+        }
     }
 
     private void logEnd() {
         if (TaskGraphModule.isEnableTrace()) {
             Trace.endSection();
         }
-        runCostTime = System.currentTimeMillis() - runStartTime;
-        TaskGraphModule.logDebug("task:" + name + " end " + runCostTime + "ms");
+        runCostTime = graphController.clock.currentTimeMillis() - runStartTime;
+        if (TaskGraphModule.isLogEnable()) {
+            TaskGraphModule.logDebug("task:" + name + " end " + runCostTime + "ms");
+        }
+    }
+
+    void addTaskListener(Task.TaskListener taskListener) {
+        if (!ownListenerSet) {
+            listenerSet = new HashSet<>(listenerSet);
+            ownListenerSet = true;
+        }
+        listenerSet.add(taskListener);
+    }
+
+    void addTaskListener(Set<Task.TaskListener> taskListenerSet) {
+        if (taskListenerSet.isEmpty()) {
+            return;
+        }
+        if (!ownListenerSet) {
+            listenerSet = new HashSet<>(listenerSet);
+            ownListenerSet = true;
+        }
+        listenerSet.addAll(taskListenerSet);
+    }
+
+    void addDepends(Object depend) {
+        if (!ownDependsOnSet) {
+            dependsOnSet = new HashSet<>(dependsOnSet);
+            ownDependsOnSet = true;
+        }
+        dependsOnSet.add(depend);
+    }
+
+    void addDepends(Set<Object> dependSet) {
+        if (dependSet.isEmpty()) {
+            return;
+        }
+        if (!ownDependsOnSet) {
+            dependsOnSet = new HashSet<>(dependsOnSet);
+            ownDependsOnSet = true;
+        }
+        dependsOnSet.addAll(dependSet);
     }
 
     void setControllerListener(TaskControllerListener controllerListener) {
         this.controllerListener = controllerListener;
     }
 
+    static TaskGraphController getRunningGraphController() {
+        TaskController taskController = RUNNING_CONTROLLER.get();
+        return taskController == null ? null : taskController.graphController;
+    }
+
+    static boolean isRunningTask(Task task) {
+        TaskController taskController = RUNNING_CONTROLLER.get();
+        return taskController != null && (taskController.task == task || taskController.task.runnable == task);
+    }
+
+    static TaskGraphExecutor getRunningExecutor(Task task) {
+        TaskController taskController = RUNNING_CONTROLLER.get();
+        if (taskController == null || (taskController.task != task && taskController.task.runnable != task)) {
+            return null;
+        }
+        return taskController.graphController.executor;
+    }
+
+    void onReady() {
+        if (controllerListener != null) {
+            controllerListener.onTaskControllerReady(this);
+        }
+    }
+
+    void onMemoDone(boolean done) {
+        if (controllerListener != null) {
+            controllerListener.onTaskControllerMemo(this, done);
+        }
+    }
+
+    static boolean removeIdentity(List<TaskController> list, TaskController taskController) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == taskController) {
+                list.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void removeIdentity(List<TaskController> list, List<TaskController> removeList) {
+        for (int i = 0; i < removeList.size(); i++) {
+            removeIdentity(list, removeList.get(i));
+        }
+    }
+
+    static void spawnTask(Task task, Task[] spawnTasks) {
+        TaskController taskController = RUNNING_CONTROLLER.get();
+        if (taskController == null || (taskController.task != task && taskController.task.runnable != task)) {
+            throw new IllegalStateException(task.name + " can only spawn task in its run");
+        }
+        if (taskController.controllerListener != null) {
+            taskController.controllerListener.onTaskControllerSpawn(taskController, spawnTasks);
+        }
+    }
+
     interface TaskControllerListener {
 
         void onTaskControllerFist(TaskController taskController);
@@ -234,6 +447,12 @@ class TaskController implements Task.TaskInterceptorChain, Runnable {
 
         void onTaskControllerCancel(TaskCancelException taskCancelException);
 
+        void onTaskControllerSpawn(TaskController taskController, Task[] spawnTasks);
+
+        void onTaskControllerReady(TaskController taskController);
+
+        void onTaskControllerMemo(TaskController taskController, boolean done);
+
     }
 
 }
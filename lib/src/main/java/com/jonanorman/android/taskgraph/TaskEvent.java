@@ -0,0 +1,8 @@
+package com.jonanorman.android.taskgraph;
+
+public enum TaskEvent {
+    FIRST_ACTIVITY_CREATED,
+    FIRST_FRAME_DRAWN,
+    APP_BACKGROUND,
+    IDLE
+}
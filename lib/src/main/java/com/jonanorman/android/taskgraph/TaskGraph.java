@@ -1,19 +1,31 @@
 package com.jonanorman.android.taskgraph;
 
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TaskGraph {
+    public static final int LATENCY_CLASS_BULK = -1;
+    public static final int LATENCY_CLASS_NORMAL = 0;
+    public static final int LATENCY_CLASS_INTERACTIVE = 1;
+
     private static AtomicLong TASK_INIT_NUMBER = new AtomicLong();
     Set<TaskGraphListener> graphListenerSet;
     Set<Task.TaskListener> taskListenerSet;
     Set<Task> taskSet;
+    Set<TaskGraph> subGraphSet;
+    Set<TaskGraphPlan> planSet;
+    Set<Object> dependsSet;
     Task firstTask;
     Task lastTask;
     String name;
     boolean mainThread;
+    int weight = 1;
+    int latencyClass = LATENCY_CLASS_NORMAL;
+    boolean transitiveReduction;
 
     public TaskGraph() {
         this(null);
@@ -28,6 +40,9 @@ public class TaskGraph {
         this.graphListenerSet = new HashSet<>();
         this.taskListenerSet = new HashSet<>();
         this.taskSet = new HashSet<>();
+        this.subGraphSet = new HashSet<>();
+        this.planSet = new LinkedHashSet<>();
+        this.dependsSet = new HashSet<>();
     }
 
 
@@ -56,6 +71,74 @@ public class TaskGraph {
         return this;
     }
 
+    public TaskGraph addTaskGraph(TaskGraph taskGraph) {
+        subGraphSet.add(taskGraph);
+        return this;
+    }
+
+    public TaskGraph removeTaskGraph(TaskGraph taskGraph) {
+        subGraphSet.remove(taskGraph);
+        return this;
+    }
+
+    public TaskGraph clearTaskGraph() {
+        subGraphSet.clear();
+        return this;
+    }
+
+    public TaskGraph addTaskPlan(TaskGraphPlan taskGraphPlan) {
+        planSet.add(taskGraphPlan);
+        return this;
+    }
+
+    public TaskGraph removeTaskPlan(TaskGraphPlan taskGraphPlan) {
+        planSet.remove(taskGraphPlan);
+        return this;
+    }
+
+    public TaskGraph clearTaskPlan() {
+        planSet.clear();
+        return this;
+    }
+
+    public TaskGraph dependsOn(String... names) {
+        for (String name : names) {
+            dependsSet.add(name);
+        }
+        return this;
+    }
+
+    public TaskGraph dependsOn(Task... tasks) {
+        for (Task task : tasks) {
+            dependsSet.add(task);
+        }
+        return this;
+    }
+
+    public TaskGraph dependsOn(TaskGraph... taskGraphs) {
+        for (TaskGraph taskGraph : taskGraphs) {
+            dependsSet.add(taskGraph);
+        }
+        return this;
+    }
+
+    public TaskGraph dependsOn(TaskEvent... taskEvents) {
+        for (TaskEvent taskEvent : taskEvents) {
+            dependsSet.add(taskEvent);
+        }
+        return this;
+    }
+
+    public TaskGraph dependsOn(Collection<Object> depends) {
+        dependsSet.addAll(depends);
+        return this;
+    }
+
+    public TaskGraph clearDepends() {
+        dependsSet.clear();
+        return this;
+    }
+
     public TaskGraph addTaskGraphListener(TaskGraphListener listener) {
         graphListenerSet.add(listener);
         return this;
@@ -103,6 +186,36 @@ public class TaskGraph {
         return mainThread;
     }
 
+    public TaskGraph setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be greater than 0, weight " + weight);
+        }
+        this.weight = weight;
+        return this;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public TaskGraph setLatencyClass(int latencyClass) {
+        this.latencyClass = latencyClass;
+        return this;
+    }
+
+    public int getLatencyClass() {
+        return latencyClass;
+    }
+
+    public TaskGraph setTransitiveReduction(boolean transitiveReduction) {
+        this.transitiveReduction = transitiveReduction;
+        return this;
+    }
+
+    public boolean isTransitiveReduction() {
+        return transitiveReduction;
+    }
+
     public void execute(TaskGraphExecutor executor) {
         executor.execute(this);
     }
@@ -3,37 +3,61 @@ package com.jonanorman.android.taskgraph;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 class TaskGraphController {
 
     private final Set<TaskGraph.TaskGraphListener> graphListenerSet;
-    private final Set<Task.TaskListener> taskListenerSet;
+    private final Task.TaskListener[] taskListeners;
     private final Set<TaskController> mainTaskControllerSet;
+    private final List<SubGraphNode> subGraphNodeList;
+    private final Map<Object, TaskController> dependsAliasMap;
+    private final List<TaskGraphPlan> planList;
+    private final List<TaskController[]> planControllerList;
+    private final Map<TaskController, TaskController> channelProducerMap;
+    private final List<TaskChannel<?>> taskChannelList;
+    private final boolean precompiled;
     private final TaskGraph taskGraph;
+    final int weight;
+    final int latencyClass;
+    private final boolean transitiveReduction;
+    private final boolean simulated;
+    final TaskGraphExecutor executor;
+    final TaskClock clock;
+    private List<DirectedGraph.Edge> reduceEdgeList;
     private TaskController firstTaskController;
     private TaskController lastTaskController;
 
     private boolean mainThread;
     private boolean started;
-    private boolean ended;
-    private boolean canceled;
+    private volatile boolean ended;
+    private volatile boolean canceled;
     private Object statusSync = new Object();
     private DirectedGraph directedGraph;
     private long startTime;
     private long costTime;
 
-    TaskGraphController(TaskGraph taskGraph) {
+    TaskGraphController(TaskGraph taskGraph, TaskGraphExecutor executor) {
         this.taskGraph = taskGraph;
+        this.executor = executor;
+        this.simulated = executor == null;
+        this.clock = executor == null ? TaskClock.SYSTEM : executor.getClock();
         this.mainThread = taskGraph.mainThread;
+        this.weight = taskGraph.weight;
+        this.latencyClass = taskGraph.latencyClass;
+        this.transitiveReduction = taskGraph.transitiveReduction;
         this.graphListenerSet = new HashSet<>(taskGraph.graphListenerSet);
-        this.taskListenerSet = new HashSet<>(taskGraph.taskListenerSet);
+        this.taskListeners = taskGraph.taskListenerSet.toArray(new Task.TaskListener[0]);
         this.mainTaskControllerSet = new HashSet<>();
+        this.subGraphNodeList = new ArrayList<>();
+        this.dependsAliasMap = new HashMap<>();
+        this.planList = new ArrayList<>();
+        this.planControllerList = new ArrayList<>();
+        this.channelProducerMap = new HashMap<>();
+        this.taskChannelList = new ArrayList<>();
         if (taskGraph.firstTask != null) {
             TaskController taskController = new TaskController(taskGraph.firstTask, this);
             if (runInProcess(taskController)) {
@@ -53,9 +77,154 @@ class TaskGraphController {
                 this.mainTaskControllerSet.add(taskController);
             }
         }
+        Set<TaskGraph> nestSet = new HashSet<>();
+        nestSet.add(taskGraph);
+        for (TaskGraph subGraph : taskGraph.subGraphSet) {
+            addSubGraph(subGraph, nestSet, new HashSet<Task.TaskListener>());
+        }
+        boolean precompiled = !taskGraph.planSet.isEmpty() && mainTaskControllerSet.isEmpty()
+                && (firstTaskController == null || firstTaskController.dependsOnSet.isEmpty())
+                && (lastTaskController == null || lastTaskController.dependsOnSet.isEmpty());
+        if (precompiled) {
+            for (TaskGraphPlan plan : taskGraph.planSet) {
+                for (Task task : plan.tasks) {
+                    if (!task.dependsSet.isEmpty()) {
+                        precompiled = false;
+                        break;
+                    }
+                }
+            }
+        }
+        for (TaskGraphPlan plan : taskGraph.planSet) {
+            TaskController[] planControllers = new TaskController[plan.tasks.length];
+            for (int i = 0; i < plan.tasks.length; i++) {
+                TaskController taskController = new TaskController(plan.tasks[i], this);
+                if (!runInProcess(taskController)) {
+                    continue;
+                }
+                if (!precompiled) {
+                    for (int dependIndex : plan.dependIndexes[i]) {
+                        if (planControllers[dependIndex] != null) {
+                            taskController.addDepends(planControllers[dependIndex]);
+                        }
+                    }
+                }
+                planControllers[i] = taskController;
+                mainTaskControllerSet.add(taskController);
+            }
+            planList.add(plan);
+            planControllerList.add(planControllers);
+        }
+        this.precompiled = precompiled;
+        if (!precompiled && !taskGraph.planSet.isEmpty() && !simulated) {
+            TaskGraphModule.logWarn(taskGraph.name + " plan is not precompiled, it has runtime depends or other tasks, build directedGraph by name");
+        }
+        addTaskEvent();
+    }
+
+    private void addTaskEvent() {
+        Set<TaskController> allSet = new HashSet<>(mainTaskControllerSet);
+        if (firstTaskController != null) {
+            allSet.add(firstTaskController);
+        }
+        if (lastTaskController != null) {
+            allSet.add(lastTaskController);
+        }
+        Map<TaskChannel<?>, TaskController> producerMap = new HashMap<>();
+        for (TaskController taskController : allSet) {
+            for (TaskChannel<?> channel : taskController.channelSet) {
+                if (producerMap.put(channel, taskController) != null) {
+                    throw new IllegalStateException(channel + " has more than one producer in " + taskGraph.name);
+                }
+                taskChannelList.add(channel);
+            }
+        }
+        for (TaskController taskController : allSet) {
+            for (Object depend : taskController.dependsOnSet) {
+                if (dependsAliasMap.containsKey(depend)) {
+                    continue;
+                }
+                if (depend instanceof TaskEvent) {
+                    TaskEvent taskEvent = (TaskEvent) depend;
+                    TaskController eventController = new TaskController(new Task("event-" + taskEvent.name().toLowerCase(), null, false, false), this);
+                    eventController.taskEvent = taskEvent;
+                    mainTaskControllerSet.add(eventController);
+                    dependsAliasMap.put(taskEvent, eventController);
+                } else if (depend instanceof TaskChannel) {
+                    TaskChannel<?> channel = (TaskChannel<?>) depend;
+                    TaskController producerController = producerMap.get(channel);
+                    if (producerController == null) {
+                        throw new IllegalStateException(taskController.name + " stream from a channel without producer in " + taskGraph.name);
+                    }
+                    TaskController channelController = new TaskController(new Task("stream-" + producerController.name, null, false, false), this);
+                    channelController.taskChannel = channel;
+                    mainTaskControllerSet.add(channelController);
+                    dependsAliasMap.put(channel, channelController);
+                    channelProducerMap.put(channelController, producerController);
+                }
+            }
+        }
+    }
+
+    private SubGraphNode addSubGraph(TaskGraph subGraph, Set<TaskGraph> nestSet, Set<Task.TaskListener> parentTaskListenerSet) {
+        if (!nestSet.add(subGraph)) {
+            throw new IllegalStateException(subGraph.name + " is nested in itself");
+        }
+        Set<Task.TaskListener> subTaskListenerSet = new HashSet<>(parentTaskListenerSet);
+        subTaskListenerSet.addAll(subGraph.taskListenerSet);
+        TaskController firstController = newSubGraphController(subGraph.firstTask, subGraph.name + "-first", subTaskListenerSet);
+        TaskController lastController = newSubGraphController(subGraph.lastTask, subGraph.name + "-last", subTaskListenerSet);
+        firstController.addDepends(subGraph.dependsSet);
+        SubGraphNode subGraphNode = new SubGraphNode(subGraph, firstController, lastController);
+        firstController.addTaskListener(subGraphNode);
+        lastController.addTaskListener(subGraphNode);
+        subGraphNodeList.add(subGraphNode);
+        dependsAliasMap.put(subGraph, lastController);
+        dependsAliasMap.put(subGraph.name, lastController);
+        mainTaskControllerSet.add(firstController);
+        mainTaskControllerSet.add(lastController);
+        for (Task task : subGraph.taskSet) {
+            TaskController taskController = new TaskController(task, this);
+            if (!runInProcess(taskController)) {
+                continue;
+            }
+            taskController.addTaskListener(subTaskListenerSet);
+            taskController.addDepends(firstController);
+            lastController.addDepends(taskController);
+            mainTaskControllerSet.add(taskController);
+        }
+        for (TaskGraph nestGraph : subGraph.subGraphSet) {
+            SubGraphNode nestNode = addSubGraph(nestGraph, nestSet, subTaskListenerSet);
+            nestNode.firstController.addDepends(firstController);
+            lastController.addDepends(nestNode.lastController);
+        }
+        nestSet.remove(subGraph);
+        return subGraphNode;
+    }
+
+    TaskController newTaskController(Task task) {
+        TaskController taskController = new TaskController(task, this);
+        if (!runInProcess(taskController)) {
+            return null;
+        }
+        return taskController;
+    }
+
+    private TaskController newSubGraphController(Task task, String name, Set<Task.TaskListener> subTaskListenerSet) {
+        if (task != null) {
+            TaskController taskController = new TaskController(task, this);
+            if (runInProcess(taskController)) {
+                taskController.addTaskListener(subTaskListenerSet);
+                return taskController;
+            }
+        }
+        return new TaskController(new Task(name, null, false, false), this);
     }
 
     private boolean runInProcess(TaskController taskController) {
+        if (simulated) {
+            return true;
+        }
         if (!TaskGraphModule.isMainProcess() && taskController.onlyMainProcess) {
             return false;
         }
@@ -69,6 +238,9 @@ class TaskGraphController {
             }
             started = true;
         }
+        for (TaskChannel<?> channel : taskChannelList) {
+            channel.open(this);
+        }
         logStart();
         for (TaskGraph.TaskGraphListener taskGraphCallback : graphListenerSet) {
             taskGraphCallback.onTaskGraphStart(taskGraph);
@@ -82,9 +254,12 @@ class TaskGraphController {
             }
             ended = true;
         }
+        for (TaskChannel<?> channel : taskChannelList) {
+            channel.release(this);
+        }
         logEnd();
-        if (TaskGraphModule.isMainThread()) {
-            TaskGraphExecutor.getDefault().getThreadPoolExecutor().execute(new Runnable() {
+        if (executor.isMainThread()) {
+            executor.post(new Runnable() {
                 @Override
                 public void run() {
                     callTaskGraphEndListener();
@@ -110,8 +285,14 @@ class TaskGraphController {
             canceled = true;
         }
         TaskGraphModule.logWarn(taskGraph.name+ cancelException.getMessage());
-        if (TaskGraphModule.isMainThread()) {
-            TaskGraphExecutor.getDefault().getThreadPoolExecutor().execute(new Runnable() {
+        for (TaskChannel<?> channel : taskChannelList) {
+            channel.cancel(this);
+        }
+        for (SubGraphNode subGraphNode : subGraphNodeList) {
+            subGraphNode.cancel(cancelException);
+        }
+        if (executor.isMainThread()) {
+            executor.post(new Runnable() {
                 @Override
                 public void run() {
                     callTaskGraphCancelListener(cancelException);
@@ -130,24 +311,24 @@ class TaskGraphController {
 
 
     void logTaskStart(Task task) {
-        for (Task.TaskListener taskListener : taskListenerSet) {
-            taskListener.doFirst(task);
+        for (int i = 0; i < taskListeners.length; i++) {
+            TaskListenerDispatcher.doFirst(taskListeners[i], task);
         }
     }
 
     void logTaskLast(Task task, long time, TimeUnit timeUnit) {
-        for (Task.TaskListener taskListener : taskListenerSet) {
-            taskListener.doLast(task, time, timeUnit);
+        for (int i = 0; i < taskListeners.length; i++) {
+            TaskListenerDispatcher.doLast(taskListeners[i], task, time, timeUnit);
         }
     }
 
     private void logStart() {
-        startTime = System.currentTimeMillis();
+        startTime = clock.currentTimeMillis();
         TaskGraphModule.logVerbose(taskGraph.name + " start...");
     }
 
     private void logEnd() {
-        costTime = System.currentTimeMillis() - startTime;
+        costTime = clock.currentTimeMillis() - startTime;
         TaskGraphModule.logDebug(taskGraph.name+" end " + costTime + " ms");
     }
 
@@ -170,9 +351,81 @@ class TaskGraphController {
     }
 
     public boolean isFinished() {
-        synchronized (statusSync) {
-            return ended || canceled;
+        return ended || canceled;
+    }
+
+    TaskController getChannelProducer(TaskController channelController) {
+        return channelProducerMap.get(channelController);
+    }
+
+    boolean hasTaskChannel() {
+        return !taskChannelList.isEmpty();
+    }
+
+    boolean containsTaskChannel(TaskChannel<?> channel) {
+        for (int i = 0; i < taskChannelList.size(); i++) {
+            if (taskChannelList.get(i) == channel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getTaskCount() {
+        return mainTaskControllerSet.size() + (firstTaskController == null ? 0 : 1) + (lastTaskController == null ? 0 : 1);
+    }
+
+    public boolean isPrecompiled() {
+        return precompiled;
+    }
+
+    private DirectedGraph getPrecompiledDirectedGraph() {
+        DirectedGraph<TaskController> graph = new DirectedGraph<>();
+        DirectedGraph.Vertex<TaskController> firstVertex = null;
+        DirectedGraph.Vertex<TaskController> lastVertex = null;
+        if (firstTaskController != null) {
+            firstVertex = new DirectedGraph.Vertex<>(firstTaskController);
+            graph.addVertex(firstVertex);
+        }
+        if (lastTaskController != null) {
+            lastVertex = new DirectedGraph.Vertex<>(lastTaskController);
+            graph.addVertex(lastVertex);
+        }
+        for (int p = 0; p < planList.size(); p++) {
+            int[][] dependIndexes = planList.get(p).dependIndexes;
+            TaskController[] planControllers = planControllerList.get(p);
+            DirectedGraph.Vertex<TaskController>[] vertices = new DirectedGraph.Vertex[planControllers.length];
+            boolean[] hasOutgoing = new boolean[planControllers.length];
+            for (int i = 0; i < planControllers.length; i++) {
+                if (planControllers[i] == null) {
+                    continue;
+                }
+                vertices[i] = new DirectedGraph.Vertex<>(planControllers[i]);
+                graph.addVertex(vertices[i]);
+                boolean root = true;
+                for (int dependIndex : dependIndexes[i]) {
+                    if (vertices[dependIndex] != null) {
+                        graph.addEdge(new DirectedGraph.Edge<>(vertices[dependIndex], vertices[i]));
+                        hasOutgoing[dependIndex] = true;
+                        root = false;
+                    }
+                }
+                if (root && firstVertex != null) {
+                    graph.addEdge(new DirectedGraph.Edge<>(firstVertex, vertices[i]));
+                }
+            }
+            if (lastVertex != null) {
+                for (int i = 0; i < vertices.length; i++) {
+                    if (vertices[i] != null && !hasOutgoing[i]) {
+                        graph.addEdge(new DirectedGraph.Edge<>(vertices[i], lastVertex));
+                    }
+                }
+            }
+        }
+        if (firstVertex != null && lastVertex != null && graph.getInDegree(lastVertex) == 0) {
+            graph.addEdge(new DirectedGraph.Edge<>(firstVertex, lastVertex));
         }
+        return graph;
     }
 
     public DirectedGraph getDirectedGraph() {
@@ -180,6 +433,18 @@ class TaskGraphController {
             return directedGraph;
         }
         long startTime = System.currentTimeMillis();
+        if (precompiled) {
+            directedGraph = getPrecompiledDirectedGraph();
+            reduceDirectedGraph();
+            if (simulated) {
+                return directedGraph;
+            }
+            if (TaskGraphModule.isLogGraphViz()) {
+                TaskGraphModule.logInfo(taskGraph.name + " graphviz:\n" + getGraphPic());
+            }
+            TaskGraphModule.logDebug(taskGraph.name + " load precompiled directedGraph " + (System.currentTimeMillis() - startTime) + "ms");
+            return directedGraph;
+        }
         directedGraph = new DirectedGraph();
         Map<TaskController, DirectedGraph.Vertex<TaskController>> taskControllerVertexMap = new HashMap<>();
         Map<Object, List<TaskController>> dependsFindsMap = new HashMap<>();
@@ -212,8 +477,27 @@ class TaskGraphController {
             if (!taskList.contains(task)) {
                 taskList.add(task);
             }
+
+            taskList = dependsFindsMap.get(task.task);
+            if (taskList == null) {
+                taskList = new ArrayList<>();
+                dependsFindsMap.put(task.task, taskList);
+            }
+            if (!taskList.contains(task)) {
+                taskList.add(task);
+            }
             directedGraph.addVertex(vertex);
         }
+        for (Map.Entry<Object, TaskController> entry : dependsAliasMap.entrySet()) {
+            List<TaskController> taskList = dependsFindsMap.get(entry.getKey());
+            if (taskList == null) {
+                taskList = new ArrayList<>();
+                dependsFindsMap.put(entry.getKey(), taskList);
+            }
+            if (!taskList.contains(entry.getValue())) {
+                taskList.add(entry.getValue());
+            }
+        }
 
         for (TaskController task : allSet) {
             DirectedGraph.Vertex<TaskController> to = taskControllerVertexMap.get(task);
@@ -230,63 +514,179 @@ class TaskGraphController {
                 }
             }
         }
-        if (firstTaskController != null) {
-            Set<TaskController> firstToSet = new HashSet<>(allSet);
-            DirectedGraph.Vertex<TaskController> firstVertex = taskControllerVertexMap.get(firstTaskController);
-            Queue<DirectedGraph.Vertex<TaskController>> queue = new LinkedList<>();
-            queue.offer(firstVertex);
-            Set<DirectedGraph.Vertex<TaskController>> searchedSet = new HashSet<>();
-            while (!queue.isEmpty()) {
-                DirectedGraph.Vertex<TaskController> vertex = queue.poll();
-                if (searchedSet.contains(vertex)) {
-                    continue;
+        checkTaskChannel(taskControllerVertexMap);
+        connectFirstAndLast(taskControllerVertexMap.get(firstTaskController), taskControllerVertexMap.get(lastTaskController));
+        reduceDirectedGraph();
+        if (simulated) {
+            return directedGraph;
+        }
+        if (TaskGraphModule.isLogGraphViz()) {
+            TaskGraphModule.logInfo(taskGraph.name+" graphviz:\n" + getGraphPic());
+        }
+        TaskGraphModule.logDebug(taskGraph.name+" calculate directedGraph " + (System.currentTimeMillis() - startTime) + "ms");
+        return directedGraph;
+    }
+
+    private void checkTaskChannel(Map<TaskController, DirectedGraph.Vertex<TaskController>> taskControllerVertexMap) {
+        if (channelProducerMap.isEmpty()) {
+            return;
+        }
+        ReachabilityIndex<TaskController> reachabilityIndex = ReachabilityIndex.build((DirectedGraph<TaskController>) directedGraph);
+        if (reachabilityIndex == null) {
+            return;
+        }
+        for (Map.Entry<TaskController, TaskController> entry : channelProducerMap.entrySet()) {
+            DirectedGraph.Vertex<TaskController> channelVertex = taskControllerVertexMap.get(entry.getKey());
+            DirectedGraph.Vertex<TaskController> producerVertex = taskControllerVertexMap.get(entry.getValue());
+            Set<DirectedGraph.Edge<TaskController>> edgeSet = directedGraph.getOutgoingEdgeSet(channelVertex);
+            for (DirectedGraph.Edge<TaskController> edge : edgeSet) {
+                if (reachabilityIndex.isAncestor(producerVertex, edge.getTo())) {
+                    throw new IllegalStateException(edge.getTo().getValue().name + " stream from " + entry.getValue().name
+                            + " can not also depend on its end\n " + directedGraph.getGraphPic());
                 }
-                searchedSet.add(vertex);
-                firstToSet.remove(vertex.getValue());
-                Set<DirectedGraph.Edge<TaskController>> incomingEdgeSet = directedGraph.getIncomingEdgeSet(vertex);
-                for (DirectedGraph.Edge<TaskController> taskEdge : incomingEdgeSet) {
-                    DirectedGraph.Vertex from = taskEdge.getFrom();
-                    queue.offer(from);
+                String conflict = getChannelConflict(entry.getValue(), edge.getTo().getValue());
+                if (conflict != null) {
+                    throw new IllegalStateException(edge.getTo().getValue().name + " stream from " + entry.getValue().name
+                            + " can not run at the same time, " + conflict);
                 }
             }
-            for (TaskController task : firstToSet) {
-                DirectedGraph.Vertex<TaskController> to = taskControllerVertexMap.get(task);
-                directedGraph.addEdge(new DirectedGraph.Edge(firstVertex, to));
-            }
         }
+    }
 
-        if (lastTaskController != null) {
-            Set<TaskController> lastFromSet = new HashSet<>(allSet);
-            DirectedGraph.Vertex<TaskController> lastVertex = taskControllerVertexMap.get(lastTaskController);
-            Queue<DirectedGraph.Vertex<TaskController>> queue = new LinkedList<>();
-            queue.offer(lastVertex);
-            Set<DirectedGraph.Vertex<TaskController>> searchedSet = new HashSet<>();
-            while (!queue.isEmpty()) {
-                DirectedGraph.Vertex<TaskController> vertex = queue.poll();
-                if (searchedSet.contains(vertex)) {
+    private String getChannelConflict(TaskController producer, TaskController consumer) {
+        if (producer.mainThread && consumer.mainThread) {
+            return "both run in main thread";
+        }
+        if (producer.serialQueue != null && producer.serialQueue.equals(consumer.serialQueue)) {
+            return "both run in serial queue " + producer.serialQueue;
+        }
+        return executor == null ? null : executor.getChannelConflict(producer, consumer);
+    }
+
+    private void connectFirstAndLast(DirectedGraph.Vertex<TaskController> firstVertex, DirectedGraph.Vertex<TaskController> lastVertex) {
+        if (firstVertex == null && lastVertex == null) {
+            return;
+        }
+        ReachabilityIndex<TaskController> reachabilityIndex = ReachabilityIndex.build((DirectedGraph<TaskController>) directedGraph);
+        if (reachabilityIndex == null) {
+            return;
+        }
+        int size = reachabilityIndex.size();
+        boolean firstConnected = false;
+        if (firstVertex != null) {
+            int firstIndex = reachabilityIndex.indexOf(firstVertex);
+            int lastIndex = lastVertex == null ? -1 : reachabilityIndex.indexOf(lastVertex);
+            long[] covered = reachabilityIndex.newBits();
+            ReachabilityIndex.or(covered, reachabilityIndex.getDescendantBits(firstIndex));
+            for (int i = 0; i < size; i++) {
+                if (i == firstIndex || i == lastIndex || ReachabilityIndex.contains(covered, i) || reachabilityIndex.isAncestor(i, firstIndex)) {
                     continue;
                 }
-                searchedSet.add(vertex);
-                lastFromSet.remove(vertex.getValue());
-                Set<DirectedGraph.Edge<TaskController>> outgoingEdgeSet = directedGraph.getOutgoingEdgeSet(vertex);
-                for (DirectedGraph.Edge<TaskController> taskEdge : outgoingEdgeSet) {
-                    DirectedGraph.Vertex to = taskEdge.getFrom();
-                    queue.offer(to);
-                }
+                directedGraph.addEdge(new DirectedGraph.Edge<>(firstVertex, reachabilityIndex.getVertex(i)));
+                ReachabilityIndex.set(covered, i);
+                ReachabilityIndex.or(covered, reachabilityIndex.getDescendantBits(i));
+                firstConnected = true;
             }
-            for (TaskController task : lastFromSet) {
-                DirectedGraph.Vertex<TaskController> from = taskControllerVertexMap.get(task);
-                directedGraph.addEdge(new DirectedGraph.Edge(from, lastVertex));
+        }
+        if (lastVertex != null) {
+            int lastIndex = reachabilityIndex.indexOf(lastVertex);
+            int firstIndex = firstVertex == null ? -1 : reachabilityIndex.indexOf(firstVertex);
+            long[] covered = reachabilityIndex.newBits();
+            ReachabilityIndex.or(covered, reachabilityIndex.getAncestorBits(lastIndex));
+            for (int i = size - 1; i >= 0; i--) {
+                if (i == lastIndex || reachabilityIndex.isAncestor(lastIndex, i)) {
+                    continue;
+                }
+                if (!ReachabilityIndex.contains(covered, i) && !(i == firstIndex && firstConnected)) {
+                    directedGraph.addEdge(new DirectedGraph.Edge<>(reachabilityIndex.getVertex(i), lastVertex));
+                }
+                ReachabilityIndex.set(covered, i);
+                ReachabilityIndex.or(covered, reachabilityIndex.getAncestorBits(i));
             }
         }
-        if (TaskGraphModule.isLogGraphViz()) {
-            TaskGraphModule.logInfo(taskGraph.name+" graphviz:\n" + directedGraph.getGraphPic());
+    }
+
+    private void reduceDirectedGraph() {
+        if (!transitiveReduction) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        reduceEdgeList = directedGraph.transitiveReduction();
+        if (reduceEdgeList != null && !simulated) {
+            TaskGraphModule.logDebug(taskGraph.name + " transitive reduction remove " + reduceEdgeList.size() + " edges "
+                    + (System.currentTimeMillis() - startTime) + "ms");
         }
-        TaskGraphModule.logDebug(taskGraph.name+" calculate directedGraph " + (System.currentTimeMillis() - startTime) + "ms");
-        return directedGraph;
+    }
+
+    String getGraphPic() {
+        if (reduceEdgeList == null) {
+            return directedGraph.getGraphPic();
+        }
+        return directedGraph.getGraphPic(reduceEdgeList);
     }
 
     public boolean isMainThread() {
         return mainThread;
     }
+
+    private static class SubGraphNode implements Task.TaskListener {
+        final TaskGraph taskGraph;
+        final TaskController firstController;
+        final TaskController lastController;
+        private final Set<TaskGraph.TaskGraphListener> graphListenerSet;
+        private boolean started;
+        private boolean finished;
+        private long startTime;
+
+        SubGraphNode(TaskGraph taskGraph, TaskController firstController, TaskController lastController) {
+            this.taskGraph = taskGraph;
+            this.firstController = firstController;
+            this.lastController = lastController;
+            this.graphListenerSet = new HashSet<>(taskGraph.graphListenerSet);
+        }
+
+        @Override
+        public void doFirst(Task task) {
+            if (task != firstController.task) {
+                return;
+            }
+            synchronized (this) {
+                started = true;
+                startTime = firstController.graphController.clock.currentTimeMillis();
+            }
+            for (TaskGraph.TaskGraphListener graphListener : graphListenerSet) {
+                graphListener.onTaskGraphStart(taskGraph);
+            }
+        }
+
+        @Override
+        public void doLast(Task task, long time, TimeUnit timeUnit) {
+            if (task != lastController.task) {
+                return;
+            }
+            long costTime;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                costTime = lastController.graphController.clock.currentTimeMillis() - startTime;
+            }
+            for (TaskGraph.TaskGraphListener graphListener : graphListenerSet) {
+                graphListener.onTaskGraphEnd(taskGraph, costTime, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void cancel(TaskCancelException cancelException) {
+            synchronized (this) {
+                if (!started || finished) {
+                    return;
+                }
+                finished = true;
+            }
+            for (TaskGraph.TaskGraphListener graphListener : graphListenerSet) {
+                graphListener.onTaskGraphCancel(taskGraph, cancelException);
+            }
+        }
+    }
 }
@@ -1,31 +1,62 @@
 package com.jonanorman.android.taskgraph;
 
+import android.app.Activity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class TaskGraphExecutor {
 
+    public static final String LANE_DEFAULT = "default";
+    public static final String LANE_CPU = "cpu";
+    public static final String LANE_IO = "io";
+
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
     private static final int CORE_POOL_SIZE = Math.max(CPU_COUNT * 2, 6);
     private static final int MAXIMUM_POOL_SIZE = CPU_COUNT * 2;
-    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final int CPU_POOL_SIZE = Math.max(CPU_COUNT, 2);
+    private static final int IO_POOL_SIZE = Math.max(CPU_COUNT * 4, 8);
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000;
     private static final Object SYNC = new Object();
-    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
-        private final AtomicInteger threadCount = new AtomicInteger(1);
-
-        public Thread newThread(final Runnable r) {
-            return new Thread(r, "TaskGraphThread#" + threadCount.getAndIncrement());
+    private static final ThreadFactory THREAD_FACTORY = TaskLane.newThreadFactory("TaskGraphThread#");
+    private static volatile TaskGraphExecutor DEFAULT;
+    static final Comparator<DirectedGraph.Vertex> TASK_COMPARATOR = new Comparator<DirectedGraph.Vertex>() {
+        @Override
+        public int compare(DirectedGraph.Vertex o1, DirectedGraph.Vertex o2) {
+            TaskController taskController1 = (TaskController) o1.getValue();
+            TaskController taskController2 = (TaskController) o2.getValue();
+            if (taskController1.boosted != taskController2.boosted) {
+                return taskController1.boosted ? -1 : 1;
+            }
+            if (taskController1.priority > taskController2.priority) {
+                return -1;
+            } else if (taskController1.priority < taskController2.priority) {
+                return 1;
+            }
+            String taskName1 = taskController1.name;
+            String taskName2 = taskController2.name;
+            int nameCompare = taskName1.compareTo(taskName2);
+            if (nameCompare != 0) {
+                return nameCompare;
+            }
+            return taskController1.hashCode() - taskController2.hashCode();
         }
     };
-    private static volatile TaskGraphExecutor DEFAULT;
 
 
     public static TaskGraphExecutor getDefault() {
@@ -42,13 +73,26 @@ public class TaskGraphExecutor {
 
 
     private final ThreadPoolExecutor threadPoolExecutor;
-
+    private final TaskLane defaultLane;
+    private final Map<String, TaskLane> laneMap;
+    private final Object resourceSync = new Object();
+    private final TaskResourceManager resourceManager = new TaskResourceManager();
+    private final Set<TaskGraphRecord> waitingRecordSet = new HashSet<>();
+    private volatile TaskClock clock = TaskClock.SYSTEM;
+    private volatile MainThreadWatchdog mainThreadWatchdog;
+    private final Object submitSync = new Object();
+    private int maxPendingGraphCount;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+    private int pendingGraphCount;
+    private long rejectedCount;
+    private long callerRunCount;
 
     public TaskGraphExecutor() {
-        threadPoolExecutor = new ThreadPoolExecutor(
-                CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
-        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        defaultLane = new TaskLane(LANE_DEFAULT, CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, THREAD_FACTORY);
+        threadPoolExecutor = defaultLane.threadPoolExecutor;
+        laneMap = new ConcurrentHashMap<>();
+        laneMap.put(LANE_DEFAULT, defaultLane);
     }
 
     public void setCoreThreadPoolSize(int corePoolSize) {
@@ -59,15 +103,261 @@ public class TaskGraphExecutor {
         threadPoolExecutor.setMaximumPoolSize(maximumPoolSize);
     }
 
+    public void setLanePoolSize(String lane, int poolSize) {
+        getLane(lane).setPoolSize(poolSize);
+    }
+
+    public void setAdaptivePoolSize(int minPoolSize, int maxPoolSize) {
+        setAdaptivePoolSize(LANE_DEFAULT, minPoolSize, maxPoolSize);
+    }
+
+    public void setAdaptivePoolSize(String lane, int minPoolSize, int maxPoolSize) {
+        getLane(lane).setAdaptivePoolSize(minPoolSize, maxPoolSize);
+    }
+
+    public void clearAdaptivePoolSize() {
+        clearAdaptivePoolSize(LANE_DEFAULT);
+    }
+
+    public void clearAdaptivePoolSize(String lane) {
+        getLane(lane).clearAdaptivePoolSize();
+    }
+
+    public boolean isAdaptivePoolSize() {
+        return isAdaptivePoolSize(LANE_DEFAULT);
+    }
+
+    public boolean isAdaptivePoolSize(String lane) {
+        return getLane(lane).isAdaptivePoolSize();
+    }
 
     public ThreadPoolExecutor getThreadPoolExecutor() {
         return threadPoolExecutor;
     }
 
+    public ThreadPoolExecutor getThreadPoolExecutor(String lane) {
+        return getLane(lane).threadPoolExecutor;
+    }
 
-    public void execute(TaskGraph taskGraph) {
-        new TaskGraphRecord(taskGraph).execute();
+    private TaskLane getLane(String lane) {
+        if (lane == null) {
+            return defaultLane;
+        }
+        TaskLane taskLane = laneMap.get(lane);
+        if (taskLane != null) {
+            return taskLane;
+        }
+        synchronized (laneMap) {
+            taskLane = laneMap.get(lane);
+            if (taskLane == null) {
+                int poolSize = LANE_IO.equals(lane) ? IO_POOL_SIZE : CPU_POOL_SIZE;
+                taskLane = new TaskLane(lane, poolSize, poolSize);
+                laneMap.put(lane, taskLane);
+            }
+        }
+        return taskLane;
+    }
+
+    public void setClock(TaskClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock can not be null");
+        }
+        this.clock = clock;
+    }
+
+    public TaskClock getClock() {
+        return clock;
+    }
+
+    public void setMainThreadWatchdog(MainThreadWatchdog mainThreadWatchdog) {
+        this.mainThreadWatchdog = mainThreadWatchdog;
+    }
+
+    public MainThreadWatchdog getMainThreadWatchdog() {
+        return mainThreadWatchdog;
+    }
+
+    public void setMaxPendingGraphCount(int maxPendingGraphCount, OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflow policy can not be null");
+        }
+        synchronized (submitSync) {
+            this.maxPendingGraphCount = maxPendingGraphCount;
+            this.overflowPolicy = overflowPolicy;
+            submitSync.notifyAll();
+        }
+    }
+
+    public void clearMaxPendingGraphCount() {
+        synchronized (submitSync) {
+            this.maxPendingGraphCount = 0;
+            submitSync.notifyAll();
+        }
+    }
+
+    public int getMaxPendingGraphCount() {
+        synchronized (submitSync) {
+            return maxPendingGraphCount;
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        synchronized (submitSync) {
+            return overflowPolicy;
+        }
+    }
+
+    public void setBlockTimeout(long timeout, TimeUnit timeUnit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("block timeout " + timeout + " can not be negative");
+        }
+        synchronized (submitSync) {
+            this.blockTimeoutMillis = timeUnit.toMillis(timeout);
+        }
+    }
+
+    public int getPendingGraphCount() {
+        synchronized (submitSync) {
+            return pendingGraphCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (submitSync) {
+            return rejectedCount;
+        }
+    }
+
+    public long getCallerRunCount() {
+        synchronized (submitSync) {
+            return callerRunCount;
+        }
+    }
+
+    public int getQueuedTaskCount() {
+        int queuedTaskCount = 0;
+        for (TaskLane taskLane : laneMap.values()) {
+            queuedTaskCount += taskLane.getQueueSize();
+        }
+        return queuedTaskCount;
+    }
+
+    public int getQueuedTaskCount(String lane) {
+        return getLane(lane).getQueueSize();
+    }
+
+    private boolean acquireGraphSlot(TaskGraph taskGraph) {
+        synchronized (submitSync) {
+            if (maxPendingGraphCount <= 0 || pendingGraphCount < maxPendingGraphCount) {
+                pendingGraphCount++;
+                return true;
+            }
+            if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+                callerRunCount++;
+                return false;
+            }
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                long deadline = System.currentTimeMillis() + blockTimeoutMillis;
+                long waitTime = blockTimeoutMillis;
+                while (waitTime > 0 && maxPendingGraphCount > 0 && pendingGraphCount >= maxPendingGraphCount) {
+                    try {
+                        submitSync.wait(waitTime);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    waitTime = deadline - System.currentTimeMillis();
+                }
+                if (maxPendingGraphCount <= 0 || pendingGraphCount < maxPendingGraphCount) {
+                    pendingGraphCount++;
+                    return true;
+                }
+            }
+            rejectedCount++;
+            throw new RejectedExecutionException(taskGraph.getName() + " rejected, pending graph count "
+                    + pendingGraphCount + " reach max " + maxPendingGraphCount);
+        }
+    }
+
+    private void releaseGraphSlot() {
+        synchronized (submitSync) {
+            pendingGraphCount--;
+            submitSync.notifyAll();
+        }
+    }
+
+    public void setResourceCapacity(String resource, int capacity) {
+        synchronized (resourceSync) {
+            resourceManager.setCapacity(resource, capacity);
+        }
+        notifyWaitingRecord();
+    }
 
+    public int getResourceCapacity(String resource) {
+        synchronized (resourceSync) {
+            return resourceManager.getCapacity(resource);
+        }
+    }
+
+    public int getResourceUsed(String resource) {
+        synchronized (resourceSync) {
+            return resourceManager.getUsed(resource);
+        }
+    }
+
+    private boolean acquireResource(TaskGraphRecord record, TaskController taskController) {
+        if (!taskController.needResource) {
+            return true;
+        }
+        synchronized (resourceSync) {
+            if (resourceManager.tryAcquire(taskController)) {
+                return true;
+            }
+            waitingRecordSet.add(record);
+            return false;
+        }
+    }
+
+    private void releaseResource(TaskController taskController) {
+        if (!taskController.needResource) {
+            return;
+        }
+        synchronized (resourceSync) {
+            resourceManager.release(taskController);
+        }
+    }
+
+    private void notifyWaitingRecord() {
+        Set<TaskGraphRecord> recordSet;
+        synchronized (resourceSync) {
+            if (waitingRecordSet.isEmpty()) {
+                return;
+            }
+            recordSet = new HashSet<>(waitingRecordSet);
+            waitingRecordSet.clear();
+        }
+        for (TaskGraphRecord record : recordSet) {
+            record.runNext();
+        }
+    }
+
+    public void execute(TaskGraph taskGraph) {
+        boolean holdSlot = acquireGraphSlot(taskGraph);
+        TaskGraphRecord record;
+        try {
+            record = new TaskGraphRecord(taskGraph);
+        } catch (RuntimeException e) {
+            if (holdSlot) {
+                releaseGraphSlot();
+            }
+            throw e;
+        }
+        if (holdSlot) {
+            record.holdSlot = true;
+            record.execute();
+        } else {
+            record.runInCaller();
+        }
     }
 
     public void execute(Task task) {
@@ -76,66 +366,298 @@ public class TaskGraphExecutor {
         execute(taskGraph.addTask(task));
     }
 
+    void executeRecord(TaskGraphRecord record, boolean mainThread) {
+        if (mainThread) {
+            runInMainThread(record);
+        } else {
+            threadPoolExecutor.execute(record);
+        }
+    }
+
+    void executeTask(TaskController taskController) {
+        if (taskController.mainThread) {
+            runInMainThread(taskController);
+        } else {
+            getLane(taskController.lane).execute(taskController);
+        }
+    }
+
+    void runInMainThread(Runnable runnable) {
+        TaskGraphModule.runInMainThread(runnable);
+    }
+
+    void post(Runnable runnable) {
+        threadPoolExecutor.execute(runnable);
+    }
+
+    boolean isMainThread() {
+        return TaskGraphModule.isMainThread();
+    }
+
+    boolean isAsyncInterceptSupported() {
+        return true;
+    }
+
+    void onTaskRunEnd(TaskController taskController) {
+    }
+
+    int getLanePoolSize(String lane) {
+        TaskLane taskLane = lane == null ? defaultLane : laneMap.get(lane);
+        if (taskLane != null) {
+            return taskLane.threadPoolExecutor.getMaximumPoolSize();
+        }
+        return LANE_IO.equals(lane) ? IO_POOL_SIZE : CPU_POOL_SIZE;
+    }
+
+    String getChannelConflict(TaskController producer, TaskController consumer) {
+        if (!producer.mainThread && !consumer.mainThread && Objects.equals(producer.lane, consumer.lane)) {
+            TaskLane taskLane = producer.lane == null ? defaultLane : laneMap.get(producer.lane);
+            int poolSize = taskLane != null ? taskLane.getMinPoolSize() : getLanePoolSize(producer.lane);
+            if (poolSize <= 1) {
+                return "lane " + (producer.lane == null ? LANE_DEFAULT : producer.lane) + " runs one task at a time";
+            }
+        }
+        synchronized (resourceSync) {
+            String resource = resourceManager.getConflictResource(producer, consumer);
+            if (resource != null) {
+                return "resource " + resource + " capacity " + resourceManager.getCapacity(resource) + " can not hold both";
+            }
+        }
+        return null;
+    }
+
+
+    public enum OverflowPolicy {
+        CALLER_RUNS,
+        BLOCK,
+        REJECT
+    }
+
 
     public class TaskGraphRecord implements Runnable {
 
         private final TaskGraphController taskGraphController;
-        private final Set<DirectedGraph.Vertex> runningTaskSet;
+        private final Set<TaskController> unstartedTaskSet;
+        private final Queue<DirectedGraph.Vertex> readyQueue;
+        private final List<DirectedGraph.Vertex> deferList;
         private final Object sync = new Object();
         private DirectedGraph directGraph;
         private final TaskGraph taskGraph;
         private Set<DirectedGraph.Vertex> vertexSet;
+        private TaskGraphModule.TopActivityListener boostListener;
+        private boolean holdSlot;
+        private List<TaskController> memoWaiterList;
+        private List<TaskController> eventWaiterList;
+        private List<TaskController> readyEventList;
+        private boolean eventPosted;
+        private Map<Object, List<DirectedGraph.Vertex<TaskController>>> dependVertexMap;
+        private ReachabilityIndex<TaskController> reachabilityIndex;
+        private Queue<TaskController> callerRunQueue;
+        private Thread callerRunThread;
+        private final MainThreadWatchdog watchdog;
+
+
+        private final TaskController.TaskControllerListener controllerListener = new TaskController.TaskControllerListener() {
+
+            @Override
+            public void onTaskControllerFist(TaskController taskController) {
+                if (taskController.needResource || taskController.memoKey != null) {
+                    synchronized (sync) {
+                        unstartedTaskSet.remove(taskController);
+                    }
+                }
+                if (watchdog != null && taskController.mainThread) {
+                    taskController.watch = watchdog.watch(taskController);
+                }
+                taskGraphController.logTaskStart(taskController.task);
+            }
+
+            @Override
+            public void onTaskControllerLast(TaskController taskController) {
+                long costTime = taskController.runCostTime;
+                onTaskRunEnd(taskController);
+                if (taskController.watch != null) {
+                    MainThreadWatchdog.Watch watch = taskController.watch;
+                    taskController.watch = null;
+                    watchdog.finish(taskController, watch, taskController.offloadable);
+                }
+                taskGraphController.logTaskLast(taskController.task, costTime, TimeUnit.MILLISECONDS);
+                nextVertex(taskController.vertex);
+            }
 
+            @Override
+            public void onTaskControllerCancel(TaskCancelException taskCancelException) {
+                unregisterBoost();
+                taskGraphController.runCancel(taskCancelException);
+                unregisterWaiter();
+                releaseUnstartedTask();
+                releaseSlot();
+            }
 
-        private final Comparator<DirectedGraph.Vertex> taskComparator = new Comparator<DirectedGraph.Vertex>() {
             @Override
-            public int compare(DirectedGraph.Vertex o1, DirectedGraph.Vertex o2) {
-                TaskController taskController1 = (TaskController) o1.getValue();
-                TaskController taskController2 = (TaskController) o2.getValue();
-                if (taskController1.priority > taskController2.priority) {
-                    return -1;
-                } else if (taskController1.priority < taskController2.priority) {
-                    return 1;
-                }
-                String taskName1 = taskController1.name;
-                String taskName2 = taskController2.name;
-                int nameCompare = taskName1.compareTo(taskName2);
-                if (nameCompare != 0) {
-                    return nameCompare;
-                }
-                return taskController1.hashCode() - taskController2.hashCode();
+            public void onTaskControllerSpawn(TaskController taskController, Task[] spawnTasks) {
+                spawnVertex(taskController.vertex, spawnTasks);
+            }
+
+            @Override
+            public void onTaskControllerReady(TaskController taskController) {
+                if (taskController.taskEvent != null) {
+                    readyEvent(taskController);
+                    return;
+                }
+                synchronized (sync) {
+                    if (!directGraph.containsVertex(taskController.vertex)) {
+                        return;
+                    }
+                    taskController.scheduled = false;
+                    removeVertex(taskController.vertex);
+                    runNext();
+                }
+            }
+
+            @Override
+            public void onTaskControllerMemo(TaskController taskController, boolean done) {
+                synchronized (sync) {
+                    if (memoWaiterList == null || !TaskController.removeIdentity(memoWaiterList, taskController)
+                            || taskGraphController.isFinished()) {
+                        return;
+                    }
+                    taskController.scheduled = false;
+                    if (done) {
+                        removeVertex(taskController.vertex);
+                    } else {
+                        readyQueue.offer(taskController.vertex);
+                    }
+                    runNext();
+                }
+            }
+        };
+
+        private final Runnable readyEventRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sync) {
+                    eventPosted = false;
+                    for (int i = 0; i < readyEventList.size(); i++) {
+                        DirectedGraph.Vertex<TaskController> vertex = readyEventList.get(i).vertex;
+                        if (directGraph.containsVertex(vertex)) {
+                            vertex.getValue().scheduled = false;
+                            removeVertex(vertex);
+                        }
+                    }
+                    readyEventList.clear();
+                    runNext();
+                }
             }
         };
 
 
         public TaskGraphRecord(TaskGraph taskGraph) {
-            runningTaskSet = new HashSet<>();
+            unstartedTaskSet = new HashSet<>();
+            deferList = new ArrayList<>();
             this.taskGraph = taskGraph;
-            taskGraphController = new TaskGraphController(taskGraph);
+            this.watchdog = mainThreadWatchdog;
+            taskGraphController = new TaskGraphController(taskGraph, TaskGraphExecutor.this);
+            readyQueue = new PriorityQueue<>(Math.max(11, taskGraphController.getTaskCount()), TASK_COMPARATOR);
         }
 
 
         public void execute() {
-            if (taskGraphController.isMainThread()) {
-                TaskGraphModule.runInMainThread(this);
-            } else {
-                threadPoolExecutor.execute(this);
-            }
+            executeRecord(this, taskGraphController.isMainThread());
         }
 
         public void run() {
-            initTaskGraph();
+            try {
+                initTaskGraph();
+            } catch (RuntimeException e) {
+                releaseSlot();
+                throw e;
+            }
             runStart();
+            registerBoost(vertexSet);
             runNext();
         }
 
+        private void runInCaller() {
+            if (taskGraphController.isMainThread() && !isMainThread()) {
+                execute();
+                return;
+            }
+            if (taskGraphController.hasTaskChannel()) {
+                throw new IllegalStateException(taskGraph.getName() + " stream channel can not run in caller, producer and consumer would run one by one");
+            }
+            callerRunQueue = new ArrayDeque<>();
+            callerRunThread = Thread.currentThread();
+            run();
+            while (true) {
+                TaskController taskController;
+                synchronized (sync) {
+                    taskController = callerRunQueue.poll();
+                    if (taskController == null) {
+                        callerRunThread = null;
+                        return;
+                    }
+                }
+                taskController.run();
+            }
+        }
+
+        private void releaseSlot() {
+            synchronized (sync) {
+                if (!holdSlot) {
+                    return;
+                }
+                holdSlot = false;
+            }
+            releaseGraphSlot();
+        }
+
 
         private void initTaskGraph() {
             directGraph = taskGraphController.getDirectedGraph();
             vertexSet = directGraph.getVertexSet();
-            if (directGraph.hasCycle()) {
+            if (!taskGraphController.isPrecompiled() && directGraph.hasCycle()) {
                 throw new IllegalStateException("graph has cycle\n " + directGraph.getGraphPic());
             }
+            if (watchdog != null) {
+                markOffloadable();
+            }
+            synchronized (sync) {
+                for (DirectedGraph.Vertex vertex : vertexSet) {
+                    if (directGraph.getInDegree(vertex) == 0) {
+                        readyQueue.offer(vertex);
+                    }
+                }
+            }
+        }
+
+        private void markOffloadable() {
+            reachabilityIndex = ReachabilityIndex.build((DirectedGraph<TaskController>) directGraph);
+            if (reachabilityIndex == null) {
+                return;
+            }
+            int size = reachabilityIndex.size();
+            long[] mainThreadBits = reachabilityIndex.newBits();
+            for (int i = 0; i < size; i++) {
+                if (reachabilityIndex.getVertex(i).getValue().mainThread) {
+                    ReachabilityIndex.set(mainThreadBits, i);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                TaskController taskController = reachabilityIndex.getVertex(i).getValue();
+                if (!taskController.mainThread) {
+                    continue;
+                }
+                long[] descendantBits = reachabilityIndex.getDescendantBits(i);
+                boolean offloadable = true;
+                for (int j = 0; j < descendantBits.length; j++) {
+                    if ((descendantBits[j] & mainThreadBits[j]) != 0) {
+                        offloadable = false;
+                        break;
+                    }
+                }
+                taskController.offloadable = offloadable;
+            }
         }
 
         private void runStart() {
@@ -143,86 +665,479 @@ public class TaskGraphExecutor {
         }
 
         private void runEnd() {
+            unregisterBoost();
             taskGraphController.runEnd();
+            releaseSlot();
         }
 
-        private void runNext() {
-
+        private void registerBoost(Collection<? extends DirectedGraph.Vertex> vertices) {
             synchronized (sync) {
-                if (vertexSet.size() == 0) {
-                    runEnd();
+                if (taskGraphController.isFinished()) {
                     return;
                 }
-                runPendingTask();
+                boolean needBoost = false;
+                for (DirectedGraph.Vertex vertex : vertices) {
+                    if (!((TaskController) vertex.getValue()).activitySet.isEmpty()) {
+                        needBoost = true;
+                        break;
+                    }
+                }
+                if (!needBoost) {
+                    return;
+                }
+                if (boostListener == null) {
+                    boostListener = new TaskGraphModule.TopActivityListener() {
+                        @Override
+                        public void onTopActivityShow(Activity activity) {
+                            boostActivity(activity);
+                        }
+                    };
+                    TaskGraphModule.addTopActivityListener(boostListener);
+                }
+                boostActivity(TaskGraphModule.peekTopActivity());
             }
         }
 
+        private void unregisterBoost() {
+            synchronized (sync) {
+                if (boostListener != null) {
+                    TaskGraphModule.removeTopActivityListener(boostListener);
+                    boostListener = null;
+                }
+            }
+        }
 
-        private Set<DirectedGraph.Vertex> findPendingTask() {
-            Set<DirectedGraph.Vertex> pendingTaskSet = new TreeSet<>(taskComparator);
-            for (DirectedGraph.Vertex<TaskController> vertex : vertexSet) {
-                if (directGraph.getInDegree(vertex) == 0) {
-                    if (runningTaskSet.add(vertex)) {
-                        pendingTaskSet.add(vertex);
+        private void boostActivity(Activity activity) {
+            if (activity == null) {
+                return;
+            }
+            synchronized (sync) {
+                if (taskGraphController.isFinished()) {
+                    return;
+                }
+                Queue<DirectedGraph.Vertex<TaskController>> queue = new ArrayDeque<>();
+                for (DirectedGraph.Vertex<TaskController> vertex : vertexSet) {
+                    for (Class<?> activityClass : vertex.getValue().activitySet) {
+                        if (activityClass.isInstance(activity)) {
+                            queue.offer(vertex);
+                            break;
+                        }
+                    }
+                }
+                Set<DirectedGraph.Vertex<TaskController>> boostSet = new HashSet<>();
+                while (!queue.isEmpty()) {
+                    DirectedGraph.Vertex<TaskController> vertex = queue.poll();
+                    if (!boostSet.add(vertex)) {
+                        continue;
+                    }
+                    Set<DirectedGraph.Edge<TaskController>> incomingEdgeSet = directGraph.getIncomingEdgeSet(vertex);
+                    for (DirectedGraph.Edge<TaskController> edge : incomingEdgeSet) {
+                        queue.offer(edge.getFrom());
                     }
                 }
+                boolean changed = false;
+                for (DirectedGraph.Vertex<TaskController> vertex : boostSet) {
+                    TaskController taskController = vertex.getValue();
+                    if (taskController.boosted) {
+                        continue;
+                    }
+                    taskController.boosted = true;
+                    changed = true;
+                    if (taskController.scheduled && !taskController.mainThread) {
+                        getLane(taskController.lane).boost(taskController);
+                    }
+                }
+                if (changed && !readyQueue.isEmpty()) {
+                    List<DirectedGraph.Vertex> readyList = new ArrayList<>(readyQueue);
+                    readyQueue.clear();
+                    readyQueue.addAll(readyList);
+                }
+                if (!boostSet.isEmpty()) {
+                    TaskGraphModule.logDebug(taskGraph.getName() + " boost " + boostSet.size() + " tasks for " + activity.getClass().getSimpleName());
+                }
+            }
+        }
+
+        private void runNext() {
+            synchronized (sync) {
+                runPendingTask();
+                if (vertexSet.size() == 0) {
+                    runEnd();
+                }
             }
-            return pendingTaskSet;
         }
 
         private void runPendingTask() {
-            Set<DirectedGraph.Vertex> pendingTaskSet = findPendingTask();
-            Iterator<DirectedGraph.Vertex> iterator = pendingTaskSet.iterator();
-            while (iterator.hasNext()) {
+            DirectedGraph.Vertex<TaskController> vertex;
+            while ((vertex = readyQueue.poll()) != null) {
                 if (taskGraphController.isFinished()) {
-                    return;
+                    break;
                 }
-                DirectedGraph.Vertex<TaskController> vertex = iterator.next();
                 TaskController taskController = vertex.getValue();
-                taskController.setControllerListener(getNextTaskControllerListener(vertex));
-                if (taskController.mainThread) {
-                    TaskGraphModule.runInMainThread(taskController);
+                if (taskController.scheduled || !directGraph.containsVertex(vertex)) {
+                    continue;
+                }
+                taskController.vertex = vertex;
+                taskController.setControllerListener(controllerListener);
+                if (taskController.taskEvent != null) {
+                    taskController.scheduled = true;
+                    if (TaskGraphModule.awaitTaskEvent(taskController.taskEvent, taskController)) {
+                        taskController.scheduled = false;
+                        removeVertex(vertex);
+                    } else {
+                        TaskGraphModule.logVerbose(taskGraph.getName() + " wait " + taskController.taskEvent);
+                        if (eventWaiterList == null) {
+                            eventWaiterList = new ArrayList<>();
+                        }
+                        eventWaiterList.add(taskController);
+                    }
+                    continue;
+                }
+                if (taskController.taskChannel != null) {
+                    taskController.scheduled = true;
+                    if (taskController.taskChannel.awaitReady(taskGraphController, taskController)) {
+                        taskController.scheduled = false;
+                        removeVertex(vertex);
+                    } else {
+                        TaskGraphModule.logVerbose(taskGraph.getName() + " wait " + taskController.name);
+                    }
+                    continue;
+                }
+                if (taskController.checkpointKey != null && TaskCheckpoint.isDone(taskController.name, taskController.checkpointKey)) {
+                    TaskGraphModule.logVerbose("task:" + taskController.name + " skip, checkpoint " + taskController.checkpointKey + " is done");
+                    removeVertex(vertex);
+                    continue;
+                }
+                if (!acquireResource(this, taskController)) {
+                    deferList.add(vertex);
+                    continue;
+                }
+                if (taskController.memoKey != null) {
+                    int claim = TaskMemo.claim(taskController.memoKey, taskController);
+                    if (claim != TaskMemo.CLAIM_RUN) {
+                        releaseResource(taskController);
+                        if (claim == TaskMemo.CLAIM_DONE) {
+                            TaskGraphModule.logVerbose("task:" + taskController.name + " skip, " + taskController.memoKey + " is done");
+                            removeVertex(vertex);
+                        } else {
+                            TaskGraphModule.logVerbose("task:" + taskController.name + " wait, " + taskController.memoKey + " is running");
+                            taskController.scheduled = true;
+                            if (memoWaiterList == null) {
+                                memoWaiterList = new ArrayList<>();
+                            }
+                            memoWaiterList.add(taskController);
+                        }
+                        continue;
+                    }
+                }
+                if (taskController.needResource || taskController.memoKey != null) {
+                    unstartedTaskSet.add(taskController);
+                }
+                taskController.scheduled = true;
+                if (callerRunThread == Thread.currentThread() && (!taskController.mainThread || isMainThread())) {
+                    callerRunQueue.offer(taskController);
                 } else {
-                    threadPoolExecutor.execute(taskController);
+                    executeTask(taskController);
                 }
             }
+            for (int i = 0; i < deferList.size(); i++) {
+                readyQueue.offer(deferList.get(i));
+            }
+            deferList.clear();
         }
 
-        private TaskController.TaskControllerListener getNextTaskControllerListener(DirectedGraph.Vertex<TaskController> vertex) {
-            TaskController.TaskControllerListener endListener = new TaskController.TaskControllerListener() {
-                long startTime;
-                long costTime;
+        private void removeVertex(DirectedGraph.Vertex<TaskController> vertex) {
+            directGraph.removeVertex(vertex, readyQueue);
+            TaskController taskController = vertex.getValue();
+            if (!taskController.channelSet.isEmpty()) {
+                for (TaskChannel<?> channel : taskController.channelSet) {
+                    channel.close(taskGraphController);
+                }
+            }
+        }
 
-                @Override
-                public void onTaskControllerFist(TaskController taskController) {
-                    startTime = System.currentTimeMillis();
-                    Task task = taskController.task;
-                    taskGraphController.logTaskStart(task);
+        private void readyEvent(TaskController taskController) {
+            synchronized (sync) {
+                if (eventWaiterList == null || !TaskController.removeIdentity(eventWaiterList, taskController)
+                        || taskGraphController.isFinished()) {
+                    return;
+                }
+                if (readyEventList == null) {
+                    readyEventList = new ArrayList<>();
+                }
+                readyEventList.add(taskController);
+                if (eventPosted) {
+                    return;
+                }
+                eventPosted = true;
+            }
+            post(readyEventRunnable);
+        }
 
+        private void unregisterWaiter() {
+            List<TaskController> waiterList;
+            List<TaskController> eventList;
+            synchronized (sync) {
+                waiterList = memoWaiterList;
+                memoWaiterList = null;
+                eventList = eventWaiterList;
+                eventWaiterList = null;
+            }
+            if (waiterList != null && !waiterList.isEmpty()) {
+                TaskMemo.unregister(waiterList);
+            }
+            if (eventList != null && !eventList.isEmpty()) {
+                TaskGraphModule.removeTaskEventWaiter(eventList);
+            }
+        }
+
+        private void nextVertex(DirectedGraph.Vertex<TaskController> vertex) {
+            synchronized (sync) {
+                releaseResource(vertex.getValue());
+                vertex.getValue().scheduled = false;
+                removeVertex(vertex);
+                runNext();
+            }
+            TaskController taskController = vertex.getValue();
+            if (taskController.checkpointKey != null) {
+                TaskCheckpoint.complete(taskController.name, taskController.checkpointKey);
+            }
+            if (taskController.memoKey != null) {
+                TaskMemo.complete(taskController.memoKey);
+            }
+            notifyWaitingRecord();
+        }
+
+        private void spawnVertex(DirectedGraph.Vertex<TaskController> parentVertex, Task[] spawnTasks) {
+            List<DirectedGraph.Vertex<TaskController>> spawnVertexList = new ArrayList<>();
+            String cycleMessage;
+            synchronized (sync) {
+                if (taskGraphController.isFinished() || !directGraph.containsVertex(parentVertex)) {
+                    return;
                 }
+                for (Task task : spawnTasks) {
+                    TaskController taskController = taskGraphController.newTaskController(task);
+                    if (taskController != null) {
+                        spawnVertexList.add(new DirectedGraph.Vertex<>(taskController));
+                    }
+                }
+                List<DirectedGraph.Edge<TaskController>> parentOutgoingEdgeList = new ArrayList<>(directGraph.getOutgoingEdgeSet(parentVertex));
+                List<DirectedGraph.Vertex<TaskController>> targetList = new ArrayList<>();
+                for (DirectedGraph.Edge<TaskController> parentOutgoingEdge : parentOutgoingEdgeList) {
+                    targetList.add(parentOutgoingEdge.getTo());
+                }
+                List<List<DirectedGraph.Vertex<TaskController>>> dependList = new ArrayList<>();
+                for (DirectedGraph.Vertex<TaskController> spawnVertex : spawnVertexList) {
+                    dependList.add(findDependVertex(spawnVertex, spawnVertexList));
+                }
+                cycleMessage = getSpawnCycle(spawnVertexList, dependList, targetList);
+                if (cycleMessage == null) {
+                    boolean dependExisting = false;
+                    for (DirectedGraph.Vertex<TaskController> spawnVertex : spawnVertexList) {
+                        directGraph.addVertex(spawnVertex);
+                        addDependVertex(spawnVertex);
+                    }
+                    for (int i = 0; i < spawnVertexList.size(); i++) {
+                        DirectedGraph.Vertex<TaskController> spawnVertex = spawnVertexList.get(i);
+                        for (DirectedGraph.Vertex<TaskController> dependVertex : dependList.get(i)) {
+                            directGraph.addEdge(new DirectedGraph.Edge<>(dependVertex, spawnVertex));
+                            if (!containsVertex(spawnVertexList, dependVertex)) {
+                                dependExisting = true;
+                            }
+                        }
+                        for (DirectedGraph.Vertex<TaskController> targetVertex : targetList) {
+                            directGraph.addEdge(new DirectedGraph.Edge<>(spawnVertex, targetVertex));
+                            if (targetVertex.getValue().boosted) {
+                                spawnVertex.getValue().boosted = true;
+                            }
+                        }
+                    }
+                    if (dependExisting) {
+                        reachabilityIndex = null;
+                    }
+                    for (DirectedGraph.Vertex<TaskController> spawnVertex : spawnVertexList) {
+                        if (directGraph.getInDegree(spawnVertex) == 0) {
+                            readyQueue.offer(spawnVertex);
+                        }
+                    }
+                    runNext();
+                }
+            }
+            if (cycleMessage != null) {
+                TaskController parentController = parentVertex.getValue();
+                controllerListener.onTaskControllerCancel(new TaskCancelException(
+                        parentController.name + " canceled, because spawn task has cycle, " + cycleMessage,
+                        parentController.task, false));
+                return;
+            }
+            registerBoost(spawnVertexList);
+        }
 
-                @Override
-                public void onTaskControllerLast(TaskController taskController) {
-                    costTime = System.currentTimeMillis() - startTime;
-                    Task task = taskController.task;
-                    taskGraphController.logTaskLast(task, costTime, TimeUnit.MILLISECONDS);
-                    nextVertex(vertex);
+        private List<DirectedGraph.Vertex<TaskController>> findDependVertex(DirectedGraph.Vertex<TaskController> spawnVertex,
+                                                                           List<DirectedGraph.Vertex<TaskController>> spawnVertexList) {
+            List<DirectedGraph.Vertex<TaskController>> dependVertexList = new ArrayList<>();
+            TaskController spawnController = spawnVertex.getValue();
+            if (spawnController.dependsOnSet.isEmpty()) {
+                return dependVertexList;
+            }
+            Map<Object, List<DirectedGraph.Vertex<TaskController>>> vertexMap = getDependVertexMap();
+            for (Object depend : spawnController.dependsOnSet) {
+                List<DirectedGraph.Vertex<TaskController>> vertexList = vertexMap.get(depend);
+                if (vertexList == null) {
+                    continue;
+                }
+                for (DirectedGraph.Vertex<TaskController> vertex : vertexList) {
+                    if (directGraph.containsVertex(vertex) && !containsVertex(dependVertexList, vertex)
+                            && isDependsOn(spawnController, vertex.getValue())) {
+                        dependVertexList.add(vertex);
+                    }
+                }
+            }
+            for (DirectedGraph.Vertex<TaskController> vertex : spawnVertexList) {
+                if (vertex != spawnVertex && isDependsOn(spawnController, vertex.getValue())) {
+                    dependVertexList.add(vertex);
                 }
+            }
+            return dependVertexList;
+        }
 
-                @Override
-                public void onTaskControllerCancel(TaskCancelException taskCancelException) {
-                    taskGraphController.runCancel(taskCancelException);
+        private String getSpawnCycle(List<DirectedGraph.Vertex<TaskController>> spawnVertexList,
+                                     List<List<DirectedGraph.Vertex<TaskController>>> dependList,
+                                     List<DirectedGraph.Vertex<TaskController>> targetList) {
+            for (int i = 0; i < spawnVertexList.size(); i++) {
+                for (DirectedGraph.Vertex<TaskController> dependVertex : dependList.get(i)) {
+                    if (containsVertex(spawnVertexList, dependVertex)) {
+                        continue;
+                    }
+                    for (DirectedGraph.Vertex<TaskController> targetVertex : targetList) {
+                        if (dependVertex == targetVertex || getReachabilityIndex(dependVertex, targetVertex).isAncestor(targetVertex, dependVertex)) {
+                            return spawnVertexList.get(i).getValue().name + " depends on " + dependVertex.getValue().name
+                                    + " which waits for the spawning task";
+                        }
+                    }
                 }
-            };
-            return endListener;
+            }
+            int size = spawnVertexList.size();
+            int[] state = new int[size];
+            for (int i = 0; i < size; i++) {
+                String cycleName = getSpawnCycle(i, state, spawnVertexList, dependList);
+                if (cycleName != null) {
+                    return spawnVertexList.get(i).getValue().name + " depends on itself through " + cycleName;
+                }
+            }
+            return null;
         }
 
-        private void nextVertex(DirectedGraph.Vertex vertex) {
+        private String getSpawnCycle(int index, int[] state,
+                                     List<DirectedGraph.Vertex<TaskController>> spawnVertexList,
+                                     List<List<DirectedGraph.Vertex<TaskController>>> dependList) {
+            if (state[index] == 2) {
+                return null;
+            }
+            if (state[index] == 1) {
+                return spawnVertexList.get(index).getValue().name;
+            }
+            state[index] = 1;
+            for (DirectedGraph.Vertex<TaskController> dependVertex : dependList.get(index)) {
+                int dependIndex = indexOfVertex(spawnVertexList, dependVertex);
+                if (dependIndex < 0) {
+                    continue;
+                }
+                String cycleName = getSpawnCycle(dependIndex, state, spawnVertexList, dependList);
+                if (cycleName != null) {
+                    return cycleName;
+                }
+            }
+            state[index] = 2;
+            return null;
+        }
+
+        private ReachabilityIndex<TaskController> getReachabilityIndex(DirectedGraph.Vertex<TaskController> dependVertex,
+                                                                       DirectedGraph.Vertex<TaskController> targetVertex) {
+            if (reachabilityIndex == null || reachabilityIndex.indexOf(dependVertex) < 0 || reachabilityIndex.indexOf(targetVertex) < 0) {
+                reachabilityIndex = ReachabilityIndex.build((DirectedGraph<TaskController>) directGraph);
+                if (reachabilityIndex == null) {
+                    throw new IllegalStateException("graph has cycle\n " + directGraph.getGraphPic());
+                }
+            }
+            return reachabilityIndex;
+        }
+
+        private Map<Object, List<DirectedGraph.Vertex<TaskController>>> getDependVertexMap() {
+            if (dependVertexMap == null) {
+                dependVertexMap = new HashMap<>();
+                for (DirectedGraph.Vertex<TaskController> vertex : vertexSet) {
+                    addDependVertex(vertex);
+                }
+            }
+            return dependVertexMap;
+        }
+
+        private void addDependVertex(DirectedGraph.Vertex<TaskController> vertex) {
+            if (dependVertexMap == null) {
+                return;
+            }
+            TaskController taskController = vertex.getValue();
+            putDependVertex(taskController.name, vertex);
+            putDependVertex(taskController, vertex);
+            putDependVertex(taskController.task, vertex);
+            if (taskController.taskEvent != null) {
+                putDependVertex(taskController.taskEvent, vertex);
+            }
+            if (taskController.taskChannel != null) {
+                putDependVertex(taskController.taskChannel, vertex);
+            }
+        }
+
+        private void putDependVertex(Object key, DirectedGraph.Vertex<TaskController> vertex) {
+            List<DirectedGraph.Vertex<TaskController>> vertexList = dependVertexMap.get(key);
+            if (vertexList == null) {
+                vertexList = new ArrayList<>();
+                dependVertexMap.put(key, vertexList);
+            }
+            if (!containsVertex(vertexList, vertex)) {
+                vertexList.add(vertex);
+            }
+        }
+
+        private boolean containsVertex(List<DirectedGraph.Vertex<TaskController>> vertexList, DirectedGraph.Vertex<TaskController> vertex) {
+            return indexOfVertex(vertexList, vertex) >= 0;
+        }
+
+        private int indexOfVertex(List<DirectedGraph.Vertex<TaskController>> vertexList, DirectedGraph.Vertex<TaskController> vertex) {
+            for (int i = 0; i < vertexList.size(); i++) {
+                if (vertexList.get(i) == vertex) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isDependsOn(TaskController taskController, TaskController dependController) {
+            for (Object depend : taskController.dependsOnSet) {
+                if (depend == dependController || depend == dependController.task || dependController.name.equals(depend)
+                        || depend == dependController.taskEvent || depend == dependController.taskChannel) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void releaseUnstartedTask() {
+            List<String> memoKeyList = new ArrayList<>();
             synchronized (sync) {
-                runningTaskSet.remove(vertex);
-                directGraph.removeVertex(vertex);
-                runNext();
+                for (TaskController taskController : unstartedTaskSet) {
+                    releaseResource(taskController);
+                    if (taskController.memoKey != null) {
+                        memoKeyList.add(taskController.memoKey);
+                    }
+                }
+                unstartedTaskSet.clear();
+            }
+            for (String memoKey : memoKeyList) {
+                TaskMemo.abandon(memoKey);
             }
+            notifyWaitingRecord();
         }
 
     }
@@ -8,8 +8,12 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Process;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.Window;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -17,8 +21,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -35,17 +44,22 @@ public class TaskGraphModule {
     private static final Object ENABLE_TRACE_SYNC = new Object();
     private static final Object LOG_GRAPH_VIZ_SYNC = new Object();
 
-    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
     private static final ConcurrentLinkedDeque<Activity> ACTIVITY_DEQUE = new ConcurrentLinkedDeque<Activity>();
     private static final List<TopActivityListener> TOP_ACTIVITY_LISTENER_LIST = new CopyOnWriteArrayList<>();
+    private static final Object TASK_EVENT_SYNC = new Object();
+    private static final Set<TaskEvent> TASK_EVENT_DONE_SET = EnumSet.noneOf(TaskEvent.class);
+    private static final Map<TaskEvent, List<TaskController>> TASK_EVENT_WAITER_MAP = new EnumMap<>(TaskEvent.class);
 
 
     private static final Application.ActivityLifecycleCallbacks TOP_ACTIVITY_LIFECYCLE_CALLBACKS = new Application.ActivityLifecycleCallbacks() {
         private Activity topActivity;
+        private int startedCount;
+        private boolean watchFirstFrame;
 
         @Override
         public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
             ACTIVITY_DEQUE.add(activity);
+            completeTaskEvent(TaskEvent.FIRST_ACTIVITY_CREATED);
             Activity currentActivity = getTopActivity();
             if (currentActivity != topActivity) {
                 topActivity = currentActivity;
@@ -57,12 +71,15 @@ public class TaskGraphModule {
 
         @Override
         public void onActivityStarted(Activity activity) {
-
+            startedCount++;
         }
 
         @Override
         public void onActivityResumed(Activity activity) {
-
+            if (!watchFirstFrame) {
+                watchFirstFrame = true;
+                watchFirstFrame(activity);
+            }
         }
 
         @Override
@@ -72,7 +89,10 @@ public class TaskGraphModule {
 
         @Override
         public void onActivityStopped(Activity activity) {
-
+            startedCount--;
+            if (startedCount == 0 && !activity.isChangingConfigurations()) {
+                completeTaskEvent(TaskEvent.APP_BACKGROUND);
+            }
         }
 
         @Override
@@ -196,16 +216,115 @@ public class TaskGraphModule {
         return ACTIVITY_DEQUE.peekLast();
     }
 
+    public static boolean isTaskEventDone(TaskEvent taskEvent) {
+        synchronized (TASK_EVENT_SYNC) {
+            return TASK_EVENT_DONE_SET.contains(taskEvent);
+        }
+    }
+
+    static boolean awaitTaskEvent(TaskEvent taskEvent, TaskController waiter) {
+        synchronized (TASK_EVENT_SYNC) {
+            if (TASK_EVENT_DONE_SET.contains(taskEvent)) {
+                return true;
+            }
+            List<TaskController> waiterList = TASK_EVENT_WAITER_MAP.get(taskEvent);
+            if (waiterList == null) {
+                waiterList = new ArrayList<>();
+                TASK_EVENT_WAITER_MAP.put(taskEvent, waiterList);
+            }
+            waiterList.add(waiter);
+            return false;
+        }
+    }
+
+    static void removeTaskEventWaiter(List<TaskController> waiterList) {
+        synchronized (TASK_EVENT_SYNC) {
+            for (List<TaskController> eventWaiterList : TASK_EVENT_WAITER_MAP.values()) {
+                TaskController.removeIdentity(eventWaiterList, waiterList);
+            }
+        }
+    }
+
+    static void completeTaskEvent(TaskEvent taskEvent) {
+        List<TaskController> waiterList;
+        synchronized (TASK_EVENT_SYNC) {
+            if (!TASK_EVENT_DONE_SET.add(taskEvent)) {
+                return;
+            }
+            waiterList = TASK_EVENT_WAITER_MAP.remove(taskEvent);
+        }
+        logDebug("task event " + taskEvent + " done");
+        if (taskEvent == TaskEvent.FIRST_FRAME_DRAWN) {
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    completeTaskEvent(TaskEvent.IDLE);
+                    return false;
+                }
+            });
+        }
+        if (waiterList == null) {
+            return;
+        }
+        for (int i = 0; i < waiterList.size(); i++) {
+            waiterList.get(i).onReady();
+        }
+    }
+
+    private static void watchFirstFrame(Activity activity) {
+        Window window = activity.getWindow();
+        final View decorView = window == null ? null : window.getDecorView();
+        if (decorView == null) {
+            MainHandlerHolder.MAIN_HANDLER.post(new Runnable() {
+                @Override
+                public void run() {
+                    completeTaskEvent(TaskEvent.FIRST_FRAME_DRAWN);
+                }
+            });
+            return;
+        }
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn;
+
+            @Override
+            public void onDraw() {
+                if (drawn) {
+                    return;
+                }
+                drawn = true;
+                final ViewTreeObserver.OnDrawListener drawListener = this;
+                MainHandlerHolder.MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ViewTreeObserver viewTreeObserver = decorView.getViewTreeObserver();
+                        if (viewTreeObserver.isAlive()) {
+                            viewTreeObserver.removeOnDrawListener(drawListener);
+                        }
+                        completeTaskEvent(TaskEvent.FIRST_FRAME_DRAWN);
+                    }
+                });
+            }
+        });
+    }
+
+    public static long getListenerEventFullWaitCount() {
+        return TaskListenerDispatcher.getFullWaitCount();
+    }
+
+    static Activity peekTopActivity() {
+        return ACTIVITY_DEQUE.peekLast();
+    }
+
     public static void runInMainThread(Runnable runnable) {
         if (isMainThread()) {
             runnable.run();
         } else {
-            MAIN_HANDLER.post(runnable);
+            MainHandlerHolder.MAIN_HANDLER.post(runnable);
         }
     }
 
     public static void postInMainThread(Runnable runnable) {
-        MAIN_HANDLER.post(runnable);
+        MainHandlerHolder.MAIN_HANDLER.post(runnable);
     }
 
     public static boolean isMainThread() {
@@ -253,6 +372,14 @@ public class TaskGraphModule {
         }
     }
 
+    public static void setCheckpointFile(File file) {
+        TaskCheckpoint.setFile(file);
+    }
+
+    public static void clearCheckpoint() {
+        TaskCheckpoint.clear();
+    }
+
     public static void addTopActivityListener(TopActivityListener topActivityListener) {
         if (!TOP_ACTIVITY_LISTENER_LIST.contains(topActivityListener)) {
             TOP_ACTIVITY_LISTENER_LIST.add(topActivityListener);
@@ -310,6 +437,10 @@ public class TaskGraphModule {
         }
     }
 
+    static boolean isLogEnable() {
+        return LOG_FUNCTION != null;
+    }
+
     public static void logVerbose(String message) {
         if (LOG_FUNCTION == null) return;
         LOG_FUNCTION.verbose(message);
@@ -475,4 +606,8 @@ public class TaskGraphModule {
         void onRecentActivity(Activity activity);
     }
 
+    private static class MainHandlerHolder {
+        static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    }
+
 }
@@ -0,0 +1,159 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public final class TaskGraphPlan {
+
+    private static final int[] EMPTY_DEPENDS = new int[0];
+
+    final String name;
+    final Task[] tasks;
+    final int[][] dependIndexes;
+
+    public TaskGraphPlan(String name, Task[] tasks, int[][] dependIndexes) {
+        if (tasks.length != dependIndexes.length) {
+            throw new IllegalArgumentException(name + " plan has " + tasks.length + " tasks but " + dependIndexes.length + " depends");
+        }
+        for (int i = 0; i < dependIndexes.length; i++) {
+            if (dependIndexes[i] == null) {
+                dependIndexes[i] = EMPTY_DEPENDS;
+            }
+            for (int dependIndex : dependIndexes[i]) {
+                if (dependIndex < 0 || dependIndex >= i) {
+                    throw new IllegalArgumentException(name + " plan is not topologically sorted, task " + tasks[i].name + " depends on index " + dependIndex);
+                }
+            }
+        }
+        this.name = name;
+        this.tasks = tasks;
+        this.dependIndexes = dependIndexes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTaskCount() {
+        return tasks.length;
+    }
+
+    public Task getTask(int index) {
+        return tasks[index];
+    }
+
+    public int[] getDependIndexes(int index) {
+        return dependIndexes[index].clone();
+    }
+
+    public static TaskGraphPlan compile(String name, Collection<Task> taskCollection) {
+        List<Task> taskList = new ArrayList<>(taskCollection);
+        Map<String, Integer> nameIndexMap = new HashMap<>();
+        Map<Task, Integer> taskIndexMap = new IdentityHashMap<>();
+        for (int i = 0; i < taskList.size(); i++) {
+            Task task = taskList.get(i);
+            if (nameIndexMap.put(task.name, i) != null) {
+                throw new IllegalArgumentException(name + " plan has duplicate task name " + task.name);
+            }
+            taskIndexMap.put(task, i);
+        }
+        List<List<Integer>> outgoingList = new ArrayList<>();
+        List<List<Integer>> incomingList = new ArrayList<>();
+        List<List<String>> externalList = new ArrayList<>();
+        for (int i = 0; i < taskList.size(); i++) {
+            outgoingList.add(new ArrayList<Integer>());
+            incomingList.add(new ArrayList<Integer>());
+            externalList.add(new ArrayList<String>());
+        }
+        int[] inDegrees = new int[taskList.size()];
+        for (int i = 0; i < taskList.size(); i++) {
+            Task task = taskList.get(i);
+            if (!task.channelSet.isEmpty()) {
+                throw new IllegalArgumentException(name + " plan task " + task.name + " can not compile stream channel");
+            }
+            for (Object depend : task.dependsSet) {
+                Integer dependIndex;
+                if (depend instanceof String) {
+                    dependIndex = nameIndexMap.get(depend);
+                    if (dependIndex == null) {
+                        externalList.get(i).add((String) depend);
+                        continue;
+                    }
+                } else if (depend instanceof Task) {
+                    dependIndex = taskIndexMap.get(depend);
+                    if (dependIndex == null) {
+                        throw new IllegalArgumentException(name + " plan task " + task.name + " depends on " + depend + " outside the plan");
+                    }
+                } else {
+                    throw new IllegalArgumentException(name + " plan task " + task.name + " can not compile depend " + depend);
+                }
+                if (dependIndex == i || incomingList.get(i).contains(dependIndex)) {
+                    continue;
+                }
+                incomingList.get(i).add(dependIndex);
+                outgoingList.get(dependIndex).add(i);
+                inDegrees[i]++;
+            }
+        }
+        final List<Task> sortTaskList = taskList;
+        PriorityQueue<Integer> readyQueue = new PriorityQueue<>(Math.max(1, taskList.size()), new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                Task task1 = sortTaskList.get(o1);
+                Task task2 = sortTaskList.get(o2);
+                if (task1.priority != task2.priority) {
+                    return task1.priority > task2.priority ? -1 : 1;
+                }
+                return task1.name.compareTo(task2.name);
+            }
+        });
+        for (int i = 0; i < inDegrees.length; i++) {
+            if (inDegrees[i] == 0) {
+                readyQueue.offer(i);
+            }
+        }
+        int[] sortIndexes = new int[taskList.size()];
+        int[] planIndexes = new int[taskList.size()];
+        int count = 0;
+        while (!readyQueue.isEmpty()) {
+            int index = readyQueue.poll();
+            planIndexes[index] = count;
+            sortIndexes[count++] = index;
+            for (int next : outgoingList.get(index)) {
+                if (--inDegrees[next] == 0) {
+                    readyQueue.offer(next);
+                }
+            }
+        }
+        if (count != taskList.size()) {
+            throw new IllegalStateException(name + " plan has cycle");
+        }
+        Task[] tasks = new Task[count];
+        int[][] dependIndexes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int index = sortIndexes[i];
+            Task task = taskList.get(index);
+            Task planTask = new Task(task, task);
+            planTask.name = task.name;
+            planTask.priority = task.priority;
+            planTask.clearDepends();
+            for (String depend : externalList.get(index)) {
+                planTask.dependsOn(depend);
+            }
+            List<Integer> incoming = incomingList.get(index);
+            int[] depends = new int[incoming.size()];
+            for (int j = 0; j < depends.length; j++) {
+                depends[j] = planIndexes[incoming.get(j)];
+            }
+            tasks[i] = planTask;
+            dependIndexes[i] = depends;
+        }
+        return new TaskGraphPlan(name, tasks, dependIndexes);
+    }
+}
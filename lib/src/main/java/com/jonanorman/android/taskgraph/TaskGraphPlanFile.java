@@ -0,0 +1,298 @@
+package com.jonanorman.android.taskgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class TaskGraphPlanFile {
+
+    private static final int MAGIC = 0x54475046;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int TASK_RECORD_SIZE = 28;
+    private static final int NO_STRING = -1;
+    private static final int FLAG_MAIN_THREAD = 1;
+    private static final int FLAG_ONLY_MAIN_PROCESS = 1 << 1;
+    private static final int FLAG_THREAD_PRIORITY_SHIFT = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TaskGraphPlanFile() {
+    }
+
+    public static void save(TaskGraphPlan plan, File file, long hash) throws IOException {
+        StringTable stringTable = new StringTable();
+        int nameIndex = stringTable.indexOf(plan.name);
+        int taskCount = plan.tasks.length;
+        int[] taskRecords = new int[taskCount * TASK_RECORD_SIZE / 4];
+        int[] edgeOffsets = new int[taskCount + 1];
+        int[] externalOffsets = new int[taskCount + 1];
+        List<Integer> externalList = new ArrayList<>();
+        int[] resourceOffsets = new int[taskCount + 1];
+        List<Integer> resourceList = new ArrayList<>();
+        int[] activityOffsets = new int[taskCount + 1];
+        List<Integer> activityList = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            Task task = plan.tasks[i];
+            if (!task.listenerSet.isEmpty() || !task.taskInterceptorSet.isEmpty()) {
+                throw new IllegalArgumentException(plan.name + " plan task " + task.name + " can not save listener or interceptor");
+            }
+            int record = i * TASK_RECORD_SIZE / 4;
+            taskRecords[record] = stringTable.indexOf(task.name);
+            taskRecords[record + 1] = stringTable.indexOf(task.lane);
+            taskRecords[record + 2] = stringTable.indexOf(task.serialQueue);
+            taskRecords[record + 3] = stringTable.indexOf(task.memoKey);
+            taskRecords[record + 4] = task.priority;
+            taskRecords[record + 5] = (task.mainThread ? FLAG_MAIN_THREAD : 0) | (task.onlyMainProcess ? FLAG_ONLY_MAIN_PROCESS : 0)
+                    | (task.threadPriority == null ? 0 : (task.threadPriority.ordinal() + 1) << FLAG_THREAD_PRIORITY_SHIFT);
+            taskRecords[record + 6] = stringTable.indexOf(task.checkpointKey);
+            for (Object depend : task.dependsSet) {
+                if (!(depend instanceof String)) {
+                    throw new IllegalArgumentException(plan.name + " plan task " + task.name + " can not save depend " + depend);
+                }
+                externalList.add(stringTable.indexOf((String) depend));
+            }
+            edgeOffsets[i + 1] = edgeOffsets[i] + plan.dependIndexes[i].length;
+            externalOffsets[i + 1] = externalList.size();
+            for (Map.Entry<String, Integer> entry : task.resourceMap.entrySet()) {
+                resourceList.add(stringTable.indexOf(entry.getKey()));
+                resourceList.add(entry.getValue());
+            }
+            resourceOffsets[i + 1] = resourceList.size() / 2;
+            for (Class<?> activityClass : task.activitySet) {
+                activityList.add(stringTable.indexOf(activityClass.getName()));
+            }
+            activityOffsets[i + 1] = activityList.size();
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(hash);
+            outputStream.writeInt(nameIndex);
+            outputStream.writeInt(stringTable.stringList.size());
+            outputStream.writeInt(taskCount);
+            outputStream.writeInt(edgeOffsets[taskCount]);
+            int byteOffset = 0;
+            outputStream.writeInt(byteOffset);
+            for (byte[] bytes : stringTable.bytesList) {
+                byteOffset += bytes.length;
+                outputStream.writeInt(byteOffset);
+            }
+            for (byte[] bytes : stringTable.bytesList) {
+                outputStream.write(bytes);
+            }
+            for (int taskRecord : taskRecords) {
+                outputStream.writeInt(taskRecord);
+            }
+            for (int edgeOffset : edgeOffsets) {
+                outputStream.writeInt(edgeOffset);
+            }
+            for (int[] depends : plan.dependIndexes) {
+                for (int depend : depends) {
+                    outputStream.writeInt(depend);
+                }
+            }
+            for (int externalOffset : externalOffsets) {
+                outputStream.writeInt(externalOffset);
+            }
+            for (int external : externalList) {
+                outputStream.writeInt(external);
+            }
+            for (int resourceOffset : resourceOffsets) {
+                outputStream.writeInt(resourceOffset);
+            }
+            for (int resource : resourceList) {
+                outputStream.writeInt(resource);
+            }
+            for (int activityOffset : activityOffsets) {
+                outputStream.writeInt(activityOffset);
+            }
+            for (int activity : activityList) {
+                outputStream.writeInt(activity);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("rename " + tempFile + " to " + file + " fail");
+        }
+    }
+
+    public static TaskGraphPlan load(File file, long hash, RunnableFactory runnableFactory) {
+        if (!file.isFile()) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            ByteBuffer buffer = map(file);
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                TaskGraphModule.logWarn(file + " is not a task graph plan of version " + VERSION);
+                return null;
+            }
+            if (buffer.getLong(8) != hash) {
+                TaskGraphModule.logDebug(file + " plan hash changed");
+                return null;
+            }
+            int nameIndex = buffer.getInt(16);
+            int stringCount = buffer.getInt(20);
+            int taskCount = buffer.getInt(24);
+            int edgeCount = buffer.getInt(28);
+            if (stringCount < 0 || taskCount < 0 || edgeCount < 0) {
+                throw new IllegalArgumentException("negative count");
+            }
+            int position = HEADER_SIZE;
+            int stringOffsetPosition = position;
+            position += (stringCount + 1) * 4;
+            int stringBytePosition = position;
+            position += buffer.getInt(stringOffsetPosition + stringCount * 4);
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int start = buffer.getInt(stringOffsetPosition + i * 4);
+                int end = buffer.getInt(stringOffsetPosition + i * 4 + 4);
+                byte[] bytes = new byte[end - start];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = buffer.get(stringBytePosition + start + j);
+                }
+                strings[i] = new String(bytes, UTF_8);
+            }
+            int taskPosition = position;
+            position += taskCount * TASK_RECORD_SIZE;
+            int edgeOffsetPosition = position;
+            position += (taskCount + 1) * 4;
+            int edgePosition = position;
+            position += edgeCount * 4;
+            int externalOffsetPosition = position;
+            position += (taskCount + 1) * 4;
+            int externalPosition = position;
+            position += buffer.getInt(externalOffsetPosition + taskCount * 4) * 4;
+            int resourceOffsetPosition = position;
+            position += (taskCount + 1) * 4;
+            int resourcePosition = position;
+            position += buffer.getInt(resourceOffsetPosition + taskCount * 4) * 8;
+            int activityOffsetPosition = position;
+            position += (taskCount + 1) * 4;
+            int activityPosition = position;
+            position += buffer.getInt(activityOffsetPosition + taskCount * 4) * 4;
+            if (position != buffer.limit()) {
+                throw new IllegalArgumentException("size " + buffer.limit() + " expect " + position);
+            }
+            Task[] tasks = new Task[taskCount];
+            int[][] dependIndexes = new int[taskCount][];
+            for (int i = 0; i < taskCount; i++) {
+                int record = taskPosition + i * TASK_RECORD_SIZE;
+                String taskName = getString(strings, buffer.getInt(record));
+                int flags = buffer.getInt(record + 20);
+                Runnable runnable = runnableFactory.newRunnable(taskName);
+                if (runnable == null) {
+                    TaskGraphModule.logWarn(file + " plan task " + taskName + " has no runnable");
+                    return null;
+                }
+                Task task = new Task(taskName, runnable, (flags & FLAG_MAIN_THREAD) != 0, (flags & FLAG_ONLY_MAIN_PROCESS) != 0);
+                task.lane = getString(strings, buffer.getInt(record + 4));
+                task.serialQueue = getString(strings, buffer.getInt(record + 8));
+                task.memoKey = getString(strings, buffer.getInt(record + 12));
+                task.priority = buffer.getInt(record + 16);
+                task.checkpointKey = getString(strings, buffer.getInt(record + 24));
+                int threadPriority = flags >>> FLAG_THREAD_PRIORITY_SHIFT;
+                if (threadPriority > 0 && threadPriority <= Task.ThreadPriority.values().length) {
+                    task.threadPriority = Task.ThreadPriority.values()[threadPriority - 1];
+                }
+                int externalStart = buffer.getInt(externalOffsetPosition + i * 4);
+                int externalEnd = buffer.getInt(externalOffsetPosition + i * 4 + 4);
+                for (int j = externalStart; j < externalEnd; j++) {
+                    task.dependsOn(getString(strings, buffer.getInt(externalPosition + j * 4)));
+                }
+                int resourceStart = buffer.getInt(resourceOffsetPosition + i * 4);
+                int resourceEnd = buffer.getInt(resourceOffsetPosition + i * 4 + 4);
+                for (int j = resourceStart; j < resourceEnd; j++) {
+                    task.resourceMap.put(getString(strings, buffer.getInt(resourcePosition + j * 8)), buffer.getInt(resourcePosition + j * 8 + 4));
+                }
+                int activityStart = buffer.getInt(activityOffsetPosition + i * 4);
+                int activityEnd = buffer.getInt(activityOffsetPosition + i * 4 + 4);
+                for (int j = activityStart; j < activityEnd; j++) {
+                    String className = getString(strings, buffer.getInt(activityPosition + j * 4));
+                    Class<?> activityClass = loadClass(className);
+                    if (activityClass == null) {
+                        TaskGraphModule.logWarn(file + " plan task " + taskName + " activity " + className + " not found");
+                        return null;
+                    }
+                    task.activitySet.add(activityClass);
+                }
+                int edgeStart = buffer.getInt(edgeOffsetPosition + i * 4);
+                int edgeEnd = buffer.getInt(edgeOffsetPosition + i * 4 + 4);
+                int[] depends = new int[edgeEnd - edgeStart];
+                for (int j = 0; j < depends.length; j++) {
+                    depends[j] = buffer.getInt(edgePosition + (edgeStart + j) * 4);
+                }
+                tasks[i] = task;
+                dependIndexes[i] = depends;
+            }
+            TaskGraphPlan plan = new TaskGraphPlan(getString(strings, nameIndex), tasks, dependIndexes);
+            TaskGraphModule.logDebug(file + " load plan " + taskCount + " tasks " + (System.currentTimeMillis() - startTime) + "ms");
+            return plan;
+        } catch (IOException | RuntimeException e) {
+            TaskGraphModule.logWarn(file + " load plan fail, " + e);
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className, false, TaskGraphPlanFile.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static String getString(String[] strings, int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    public interface RunnableFactory {
+
+        Runnable newRunnable(String taskName);
+    }
+
+    private static class StringTable {
+        final List<String> stringList = new ArrayList<>();
+        final List<byte[]> bytesList = new ArrayList<>();
+        final Map<String, Integer> indexMap = new HashMap<>();
+
+        int indexOf(String string) {
+            if (string == null) {
+                return NO_STRING;
+            }
+            Integer index = indexMap.get(string);
+            if (index == null) {
+                index = stringList.size();
+                stringList.add(string);
+                bytesList.add(string.getBytes(UTF_8));
+                indexMap.put(string, index);
+            }
+            return index;
+        }
+    }
+}
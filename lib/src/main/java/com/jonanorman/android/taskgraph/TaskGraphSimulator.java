@@ -0,0 +1,410 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TaskGraphSimulator {
+
+    public static final String LANE_MAIN_THREAD = "mainThread";
+
+    private static final int DEFAULT_THREAD_COUNT = 4;
+
+    private final Map<String, Integer> laneThreadCountMap = new HashMap<>();
+    private final Map<String, Long> durationMap = new HashMap<>();
+    private final Map<TaskEvent, Long> eventTimeMap = new EnumMap<>(TaskEvent.class);
+    private final Map<String, Integer> resourceCapacityMap = new HashMap<>();
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private long defaultDuration;
+    private boolean mainThreadSerial = true;
+    private boolean priorityOrder = true;
+
+    public TaskGraphSimulator setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("thread count " + threadCount + " must be positive");
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public TaskGraphSimulator setLaneThreadCount(String lane, int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("lane " + lane + " thread count " + threadCount + " must be positive");
+        }
+        laneThreadCountMap.put(lane, threadCount);
+        return this;
+    }
+
+    public TaskGraphSimulator setTaskDuration(String taskName, long duration) {
+        durationMap.put(taskName, duration);
+        return this;
+    }
+
+    public TaskGraphSimulator setTaskDurations(Map<String, Long> durations) {
+        durationMap.putAll(durations);
+        return this;
+    }
+
+    public TaskGraphSimulator setDefaultDuration(long defaultDuration) {
+        this.defaultDuration = defaultDuration;
+        return this;
+    }
+
+    public TaskGraphSimulator setTaskEventTime(TaskEvent taskEvent, long time) {
+        eventTimeMap.put(taskEvent, time);
+        return this;
+    }
+
+    public TaskGraphSimulator setResourceCapacity(String resource, int capacity) {
+        resourceCapacityMap.put(resource, capacity);
+        return this;
+    }
+
+    public TaskGraphSimulator setMainThreadSerial(boolean mainThreadSerial) {
+        this.mainThreadSerial = mainThreadSerial;
+        return this;
+    }
+
+    public TaskGraphSimulator setPriorityOrder(boolean priorityOrder) {
+        this.priorityOrder = priorityOrder;
+        return this;
+    }
+
+    public Result simulate(TaskGraph taskGraph) {
+        return new Simulation(taskGraph).run();
+    }
+
+    private static class SimulateLane {
+        final String name;
+        final int threadCount;
+        final Queue<DirectedGraph.Vertex<TaskController>> taskQueue = new ArrayDeque<>();
+        int idleCount;
+        long busyTime;
+
+        SimulateLane(String name, int threadCount) {
+            this.name = name;
+            this.threadCount = threadCount;
+            this.idleCount = threadCount;
+        }
+    }
+
+    private static class SimulateEvent {
+        final long time;
+        final long sequence;
+        final DirectedGraph.Vertex<TaskController> vertex;
+        final SimulateLane lane;
+
+        SimulateEvent(long time, long sequence, DirectedGraph.Vertex<TaskController> vertex, SimulateLane lane) {
+            this.time = time;
+            this.sequence = sequence;
+            this.vertex = vertex;
+            this.lane = lane;
+        }
+    }
+
+    private class Simulation {
+        final TaskGraph taskGraph;
+        final TaskGraphController graphController;
+        final DirectedGraph<TaskController> graph;
+        final Queue<DirectedGraph.Vertex<TaskController>> readyQueue;
+        final List<DirectedGraph.Vertex<TaskController>> deferList = new ArrayList<>();
+        final Map<String, SimulateLane> laneMap = new LinkedHashMap<>();
+        final PriorityQueue<SimulateEvent> eventQueue = new PriorityQueue<>(11, new Comparator<SimulateEvent>() {
+            @Override
+            public int compare(SimulateEvent o1, SimulateEvent o2) {
+                if (o1.time != o2.time) {
+                    return o1.time < o2.time ? -1 : 1;
+                }
+                return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+            }
+        });
+        final TaskResourceManager resourceManager = new TaskResourceManager();
+        final Map<TaskController, List<TaskController>> predecessorMap = new IdentityHashMap<>();
+        final Map<TaskController, List<DirectedGraph.Vertex<TaskController>>> channelWaitMap = new IdentityHashMap<>();
+        final Map<TaskController, long[]> timeMap = new IdentityHashMap<>();
+        final List<String> dispatchList = new ArrayList<>();
+        long now;
+        long sequence;
+
+        Simulation(TaskGraph taskGraph) {
+            this.taskGraph = taskGraph;
+            graphController = new TaskGraphController(taskGraph, null);
+            graph = graphController.getDirectedGraph();
+            if (graph.hasCycle()) {
+                throw new IllegalStateException(taskGraph.getName() + " graph has cycle\n " + graph.getGraphPic());
+            }
+            if (priorityOrder) {
+                readyQueue = new PriorityQueue<DirectedGraph.Vertex<TaskController>>(11, (Comparator) TaskGraphExecutor.TASK_COMPARATOR);
+            } else {
+                readyQueue = new ArrayDeque<>();
+            }
+            for (Map.Entry<String, Integer> entry : resourceCapacityMap.entrySet()) {
+                resourceManager.setCapacity(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Result run() {
+            Set<DirectedGraph.Vertex<TaskController>> vertexSet = graph.getVertexSet();
+            List<DirectedGraph.Vertex<TaskController>> rootList = new ArrayList<>();
+            for (DirectedGraph.Vertex<TaskController> vertex : vertexSet) {
+                List<TaskController> predecessorList = new ArrayList<>();
+                for (DirectedGraph.Edge<TaskController> edge : graph.getIncomingEdgeSet(vertex)) {
+                    predecessorList.add(edge.getFrom().getValue());
+                }
+                predecessorMap.put(vertex.getValue(), predecessorList);
+                if (predecessorList.isEmpty()) {
+                    rootList.add(vertex);
+                }
+            }
+            Collections.sort(rootList, (Comparator) TaskGraphExecutor.TASK_COMPARATOR);
+            readyQueue.addAll(rootList);
+            dispatch();
+            while (!eventQueue.isEmpty()) {
+                SimulateEvent event = eventQueue.poll();
+                now = event.time;
+                complete(event);
+                dispatch();
+            }
+            if (!vertexSet.isEmpty()) {
+                throw new IllegalStateException(taskGraph.getName() + " simulation stuck at " + now + " with " + vertexSet.size() + " tasks");
+            }
+            return newResult();
+        }
+
+        private void dispatch() {
+            DirectedGraph.Vertex<TaskController> vertex;
+            while ((vertex = readyQueue.poll()) != null) {
+                TaskController taskController = vertex.getValue();
+                if (taskController.taskEvent != null) {
+                    Long eventTime = eventTimeMap.get(taskController.taskEvent);
+                    schedule(vertex, eventTime == null ? now : Math.max(now, eventTime), null);
+                    continue;
+                }
+                if (taskController.taskChannel != null) {
+                    TaskController producerController = graphController.getChannelProducer(taskController);
+                    if (producerController == null || timeMap.containsKey(producerController)) {
+                        schedule(vertex, now, null);
+                    } else {
+                        List<DirectedGraph.Vertex<TaskController>> waitList = channelWaitMap.get(producerController);
+                        if (waitList == null) {
+                            waitList = new ArrayList<>();
+                            channelWaitMap.put(producerController, waitList);
+                        }
+                        waitList.add(vertex);
+                    }
+                    continue;
+                }
+                if (taskController.needResource && !resourceManager.tryAcquire(taskController)) {
+                    deferList.add(vertex);
+                    continue;
+                }
+                timeMap.put(taskController, new long[]{now, -1, -1});
+                dispatchList.add(taskController.name);
+                getLane(taskController).taskQueue.offer(vertex);
+            }
+            readyQueue.addAll(deferList);
+            deferList.clear();
+            for (SimulateLane lane : laneMap.values()) {
+                while (lane.idleCount > 0 && !lane.taskQueue.isEmpty()) {
+                    start(lane, lane.taskQueue.poll());
+                }
+            }
+        }
+
+        private void start(SimulateLane lane, DirectedGraph.Vertex<TaskController> vertex) {
+            TaskController taskController = vertex.getValue();
+            long duration = getDuration(taskController);
+            timeMap.get(taskController)[1] = now;
+            lane.idleCount--;
+            lane.busyTime += duration;
+            schedule(vertex, now + duration, lane);
+            List<DirectedGraph.Vertex<TaskController>> waitList = channelWaitMap.remove(taskController);
+            if (waitList != null) {
+                for (DirectedGraph.Vertex<TaskController> channelVertex : waitList) {
+                    schedule(channelVertex, now, null);
+                }
+            }
+        }
+
+        private void complete(SimulateEvent event) {
+            TaskController taskController = event.vertex.getValue();
+            if (event.lane != null) {
+                event.lane.idleCount++;
+                if (taskController.needResource) {
+                    resourceManager.release(taskController);
+                }
+                timeMap.get(taskController)[2] = now;
+            } else {
+                timeMap.put(taskController, new long[]{now, now, now});
+            }
+            graph.removeVertex(event.vertex, readyQueue);
+        }
+
+        private void schedule(DirectedGraph.Vertex<TaskController> vertex, long time, SimulateLane lane) {
+            eventQueue.offer(new SimulateEvent(time, sequence++, vertex, lane));
+        }
+
+        private long getDuration(TaskController taskController) {
+            Long duration = durationMap.get(taskController.name);
+            if (duration != null) {
+                return duration;
+            }
+            if (taskController.task.runnable == null && taskController.task.getClass() == Task.class) {
+                return 0;
+            }
+            return defaultDuration;
+        }
+
+        private SimulateLane getLane(TaskController taskController) {
+            String laneName;
+            int laneThreadCount;
+            if (taskController.mainThread && mainThreadSerial) {
+                laneName = LANE_MAIN_THREAD;
+                laneThreadCount = 1;
+            } else {
+                laneName = taskController.lane == null ? TaskGraphExecutor.LANE_DEFAULT : taskController.lane;
+                Integer count = laneThreadCountMap.get(laneName);
+                laneThreadCount = count == null ? threadCount : count;
+            }
+            SimulateLane lane = laneMap.get(laneName);
+            if (lane == null) {
+                lane = new SimulateLane(laneName, laneThreadCount);
+                laneMap.put(laneName, lane);
+            }
+            return lane;
+        }
+
+        private Result newResult() {
+            long makespan = 0;
+            TaskController endController = null;
+            Map<String, long[]> taskTimeMap = new LinkedHashMap<>();
+            for (Map.Entry<TaskController, long[]> entry : timeMap.entrySet()) {
+                long[] times = entry.getValue();
+                taskTimeMap.put(entry.getKey().name, times);
+                if (endController == null || times[2] > makespan) {
+                    makespan = times[2];
+                    endController = entry.getKey();
+                }
+            }
+            List<String> criticalPath = new ArrayList<>();
+            TaskController pathController = endController;
+            while (pathController != null) {
+                criticalPath.add(pathController.name);
+                TaskController bindController = null;
+                for (TaskController predecessor : predecessorMap.get(pathController)) {
+                    if (bindController == null || timeMap.get(predecessor)[2] > timeMap.get(bindController)[2]) {
+                        bindController = predecessor;
+                    }
+                }
+                pathController = bindController;
+            }
+            Collections.reverse(criticalPath);
+            Map<String, Double> laneUtilizationMap = new LinkedHashMap<>();
+            long busyTime = 0;
+            long capacityTime = 0;
+            for (SimulateLane lane : laneMap.values()) {
+                busyTime += lane.busyTime;
+                capacityTime += lane.threadCount * makespan;
+                laneUtilizationMap.put(lane.name, makespan == 0 ? 0 : (double) lane.busyTime / (lane.threadCount * makespan));
+            }
+            double utilization = capacityTime == 0 ? 0 : (double) busyTime / capacityTime;
+            return new Result(makespan, utilization, laneUtilizationMap, criticalPath, dispatchList, taskTimeMap);
+        }
+    }
+
+    public static final class Result {
+        private final long makespan;
+        private final double threadUtilization;
+        private final Map<String, Double> laneUtilizationMap;
+        private final List<String> criticalPath;
+        private final List<String> dispatchOrder;
+        private final Map<String, long[]> taskTimeMap;
+
+        Result(long makespan, double threadUtilization, Map<String, Double> laneUtilizationMap,
+               List<String> criticalPath, List<String> dispatchOrder, Map<String, long[]> taskTimeMap) {
+            this.makespan = makespan;
+            this.threadUtilization = threadUtilization;
+            this.laneUtilizationMap = Collections.unmodifiableMap(laneUtilizationMap);
+            this.criticalPath = Collections.unmodifiableList(criticalPath);
+            this.dispatchOrder = Collections.unmodifiableList(dispatchOrder);
+            this.taskTimeMap = taskTimeMap;
+        }
+
+        public long getMakespan() {
+            return makespan;
+        }
+
+        public double getThreadUtilization() {
+            return threadUtilization;
+        }
+
+        public Map<String, Double> getLaneUtilization() {
+            return laneUtilizationMap;
+        }
+
+        public List<String> getCriticalPath() {
+            return criticalPath;
+        }
+
+        public List<String> getDispatchOrder() {
+            return dispatchOrder;
+        }
+
+        public long getQueueTime(String taskName) {
+            long[] times = requireTimes(taskName);
+            return times[1] - times[0];
+        }
+
+        public long getStartTime(String taskName) {
+            return requireTimes(taskName)[1];
+        }
+
+        public long getEndTime(String taskName) {
+            return requireTimes(taskName)[2];
+        }
+
+        private long[] requireTimes(String taskName) {
+            long[] times = taskTimeMap.get(taskName);
+            if (times == null) {
+                throw new IllegalArgumentException("not exist task " + taskName);
+            }
+            return times;
+        }
+
+        @Override
+        public String toString() {
+            return "Result makespan " + makespan + " threadUtilization " + threadUtilization
+                    + " laneUtilization " + laneUtilizationMap + " criticalPath " + criticalPath;
+        }
+    }
+
+    public static class DurationRecorder implements Task.TaskListener {
+        private final Map<String, Long> durationMap = new ConcurrentHashMap<>();
+
+        @Override
+        public void doFirst(Task task) {
+
+        }
+
+        @Override
+        public void doLast(Task task, long time, TimeUnit timeUnit) {
+            durationMap.put(task.getName(), timeUnit.toMillis(time));
+        }
+
+        public Map<String, Long> getDurationMap() {
+            return new HashMap<>(durationMap);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.jonanorman.android.taskgraph;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TaskLane {
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final long STRIDE = 1 << 20;
+
+    final String name;
+    final ThreadPoolExecutor threadPoolExecutor;
+    private volatile AdaptivePoolSizer adaptivePoolSizer;
+    private final Object queueSync = new Object();
+    private final List<GraphQueue> graphQueueList = new ArrayList<>();
+    private final List<GraphQueue> freeGraphQueueList = new ArrayList<>();
+    private final Queue<TaskController> boostQueue = new ArrayDeque<>();
+    private long virtualPass;
+    private int queueSize;
+    private int drainCount;
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                TaskController taskController;
+                synchronized (queueSync) {
+                    taskController = poll();
+                    if (taskController == null) {
+                        drainCount--;
+                        return;
+                    }
+                }
+                AdaptivePoolSizer poolSizer = adaptivePoolSizer;
+                long startCpuTime = 0;
+                if (poolSizer != null) {
+                    if (taskController.laneEnqueueTime != 0) {
+                        poolSizer.sampleQueueWait(System.nanoTime() - taskController.laneEnqueueTime);
+                    }
+                    startCpuTime = SystemClock.currentThreadTimeMillis();
+                }
+                boolean finish = false;
+                try {
+                    taskController.run();
+                    if (poolSizer != null) {
+                        poolSizer.sample(SystemClock.currentThreadTimeMillis() - startCpuTime);
+                    }
+                    finish = true;
+                } finally {
+                    if (!finish) {
+                        synchronized (queueSync) {
+                            drainCount--;
+                        }
+                        startDrain();
+                    }
+                }
+            }
+        }
+    };
+
+    TaskLane(String name, int corePoolSize, int maximumPoolSize) {
+        this(name, corePoolSize, maximumPoolSize, newThreadFactory("TaskGraphThread-" + name + "#"));
+    }
+
+    TaskLane(String name, int corePoolSize, int maximumPoolSize, ThreadFactory threadFactory) {
+        this.name = name;
+        this.threadPoolExecutor = new ThreadPoolExecutor(
+                corePoolSize, maximumPoolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        this.threadPoolExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static ThreadFactory newThreadFactory(String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, prefix + threadCount.getAndIncrement());
+            }
+        };
+    }
+
+    void execute(TaskController taskController) {
+        TaskGraphController graphController = taskController.graphController;
+        taskController.laneEnqueueTime = adaptivePoolSizer == null ? 0 : System.nanoTime();
+        synchronized (queueSync) {
+            if (taskController.boosted) {
+                boostQueue.offer(taskController);
+            } else {
+                GraphQueue graphQueue = getGraphQueue(graphController);
+                if (graphQueue == null) {
+                    int freeSize = freeGraphQueueList.size();
+                    graphQueue = freeSize > 0 ? freeGraphQueueList.remove(freeSize - 1) : new GraphQueue();
+                    graphQueue.reset(graphController, virtualPass);
+                    graphQueueList.add(graphQueue);
+                }
+                graphQueue.taskQueue.offer(taskController);
+            }
+            queueSize++;
+        }
+        startDrain();
+    }
+
+    private void startDrain() {
+        synchronized (queueSync) {
+            if (queueSize == 0 || drainCount >= threadPoolExecutor.getMaximumPoolSize()) {
+                return;
+            }
+            drainCount++;
+        }
+        threadPoolExecutor.execute(drainRunnable);
+    }
+
+    int getQueueSize() {
+        synchronized (queueSync) {
+            return queueSize;
+        }
+    }
+
+    void boost(TaskController taskController) {
+        synchronized (queueSync) {
+            GraphQueue graphQueue = getGraphQueue(taskController.graphController);
+            if (graphQueue == null) {
+                return;
+            }
+            Iterator<TaskController> iterator = graphQueue.taskQueue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == taskController) {
+                    iterator.remove();
+                    boostQueue.offer(taskController);
+                    break;
+                }
+            }
+            if (graphQueue.taskQueue.isEmpty()) {
+                recycleGraphQueue(graphQueue);
+            }
+        }
+    }
+
+    private GraphQueue getGraphQueue(TaskGraphController graphController) {
+        for (int i = 0; i < graphQueueList.size(); i++) {
+            GraphQueue graphQueue = graphQueueList.get(i);
+            if (graphQueue.graphController == graphController) {
+                return graphQueue;
+            }
+        }
+        return null;
+    }
+
+    private void recycleGraphQueue(GraphQueue graphQueue) {
+        graphQueueList.remove(graphQueue);
+        graphQueue.graphController = null;
+        freeGraphQueueList.add(graphQueue);
+    }
+
+    private TaskController poll() {
+        if (!boostQueue.isEmpty()) {
+            queueSize--;
+            return boostQueue.poll();
+        }
+        GraphQueue selectQueue = null;
+        for (int i = 0; i < graphQueueList.size(); i++) {
+            GraphQueue graphQueue = graphQueueList.get(i);
+            if (selectQueue == null
+                    || graphQueue.latencyClass > selectQueue.latencyClass
+                    || (graphQueue.latencyClass == selectQueue.latencyClass && graphQueue.pass < selectQueue.pass)) {
+                selectQueue = graphQueue;
+            }
+        }
+        if (selectQueue == null) {
+            return null;
+        }
+        TaskController taskController = selectQueue.taskQueue.poll();
+        virtualPass = Math.max(virtualPass, selectQueue.pass);
+        selectQueue.pass += selectQueue.stride;
+        if (selectQueue.taskQueue.isEmpty()) {
+            recycleGraphQueue(selectQueue);
+        }
+        queueSize--;
+        return taskController;
+    }
+
+    void setPoolSize(int poolSize) {
+        synchronized (threadPoolExecutor) {
+            if (poolSize > threadPoolExecutor.getMaximumPoolSize()) {
+                threadPoolExecutor.setMaximumPoolSize(poolSize);
+                threadPoolExecutor.setCorePoolSize(poolSize);
+            } else {
+                threadPoolExecutor.setCorePoolSize(poolSize);
+                threadPoolExecutor.setMaximumPoolSize(poolSize);
+            }
+        }
+    }
+
+    void setAdaptivePoolSize(int minPoolSize, int maxPoolSize) {
+        adaptivePoolSizer = new AdaptivePoolSizer(this, minPoolSize, maxPoolSize);
+    }
+
+    void clearAdaptivePoolSize() {
+        adaptivePoolSizer = null;
+    }
+
+    boolean isAdaptivePoolSize() {
+        return adaptivePoolSizer != null;
+    }
+
+    int getMinPoolSize() {
+        AdaptivePoolSizer poolSizer = adaptivePoolSizer;
+        int maximumPoolSize = threadPoolExecutor.getMaximumPoolSize();
+        return poolSizer == null ? maximumPoolSize : Math.min(maximumPoolSize, poolSizer.getMinPoolSize());
+    }
+
+    @Override
+    public String toString() {
+        return "TaskLane " + name;
+    }
+
+    private static class GraphQueue {
+        final Queue<TaskController> taskQueue = new ArrayDeque<>();
+        TaskGraphController graphController;
+        int latencyClass;
+        long stride;
+        long pass;
+
+        void reset(TaskGraphController graphController, long pass) {
+            this.graphController = graphController;
+            this.latencyClass = graphController.latencyClass;
+            this.stride = STRIDE / graphController.weight;
+            this.pass = pass;
+        }
+    }
+}
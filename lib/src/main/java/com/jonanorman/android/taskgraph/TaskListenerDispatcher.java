@@ -0,0 +1,163 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+class TaskListenerDispatcher {
+
+    private static final int RING_SIZE = 1024;
+    private static final int EVENT_FIRST = 0;
+    private static final int EVENT_LAST = 1;
+
+    private static final Object SYNC = new Object();
+    private static final ListenerEvent[] EVENT_RING = new ListenerEvent[RING_SIZE];
+    private static final ArrayDeque<ListenerEvent> OVERFLOW_QUEUE = new ArrayDeque<>();
+    private static long HEAD;
+    private static long TAIL;
+    private static long FULL_WAIT_COUNT;
+    private static Thread DISPATCH_THREAD;
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            EVENT_RING[i] = new ListenerEvent();
+        }
+    }
+
+    static void doFirst(Task.TaskListener taskListener, Task task) {
+        if (taskListener instanceof Task.AsyncTaskListener) {
+            publish(EVENT_FIRST, taskListener, task, 0, null);
+        } else {
+            taskListener.doFirst(task);
+        }
+    }
+
+    static void doLast(Task.TaskListener taskListener, Task task, long time, TimeUnit timeUnit) {
+        if (taskListener instanceof Task.AsyncTaskListener) {
+            publish(EVENT_LAST, taskListener, task, time, timeUnit);
+        } else {
+            taskListener.doLast(task, time, timeUnit);
+        }
+    }
+
+    static long getFullWaitCount() {
+        synchronized (SYNC) {
+            return FULL_WAIT_COUNT;
+        }
+    }
+
+    private static void publish(int type, Task.TaskListener taskListener, Task task, long time, TimeUnit timeUnit) {
+        if (Thread.currentThread() == DISPATCH_THREAD) {
+            dispatch(type, taskListener, task, time, timeUnit);
+            return;
+        }
+        boolean mainThread = TaskGraphModule.isMainThread();
+        long fullWaitCount = 0;
+        synchronized (SYNC) {
+            if (TAIL - HEAD == RING_SIZE) {
+                fullWaitCount = ++FULL_WAIT_COUNT;
+                if (!mainThread) {
+                    boolean interrupted = false;
+                    while (TAIL - HEAD == RING_SIZE) {
+                        try {
+                            SYNC.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (TAIL - HEAD == RING_SIZE) {
+                ListenerEvent event = new ListenerEvent();
+                setEvent(event, type, taskListener, task, time, timeUnit);
+                OVERFLOW_QUEUE.addLast(event);
+            } else {
+                setEvent(EVENT_RING[(int) (TAIL % RING_SIZE)], type, taskListener, task, time, timeUnit);
+                TAIL++;
+            }
+            if (DISPATCH_THREAD == null) {
+                DISPATCH_THREAD = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchLoop();
+                    }
+                }, "TaskGraphListenerThread");
+                DISPATCH_THREAD.setDaemon(true);
+                DISPATCH_THREAD.start();
+            } else if (TAIL - HEAD == 1) {
+                SYNC.notifyAll();
+            }
+        }
+        if (fullWaitCount % RING_SIZE == 1) {
+            TaskGraphModule.logWarn("listener event ring is full " + fullWaitCount + " times");
+        }
+    }
+
+    private static void dispatchLoop() {
+        while (true) {
+            int type;
+            Task.TaskListener taskListener;
+            Task task;
+            long time;
+            TimeUnit timeUnit;
+            synchronized (SYNC) {
+                while (HEAD == TAIL) {
+                    try {
+                        SYNC.wait();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+                ListenerEvent event = EVENT_RING[(int) (HEAD % RING_SIZE)];
+                type = event.type;
+                taskListener = event.taskListener;
+                task = event.task;
+                time = event.time;
+                timeUnit = event.timeUnit;
+                event.taskListener = null;
+                event.task = null;
+                event.timeUnit = null;
+                boolean full = TAIL - HEAD == RING_SIZE;
+                HEAD++;
+                ListenerEvent overflowEvent = OVERFLOW_QUEUE.pollFirst();
+                if (overflowEvent != null) {
+                    setEvent(EVENT_RING[(int) (TAIL % RING_SIZE)], overflowEvent.type, overflowEvent.taskListener,
+                            overflowEvent.task, overflowEvent.time, overflowEvent.timeUnit);
+                    TAIL++;
+                } else if (full) {
+                    SYNC.notifyAll();
+                }
+            }
+            dispatch(type, taskListener, task, time, timeUnit);
+        }
+    }
+
+    private static void setEvent(ListenerEvent event, int type, Task.TaskListener taskListener, Task task, long time, TimeUnit timeUnit) {
+        event.type = type;
+        event.taskListener = taskListener;
+        event.task = task;
+        event.time = time;
+        event.timeUnit = timeUnit;
+    }
+
+    private static void dispatch(int type, Task.TaskListener taskListener, Task task, long time, TimeUnit timeUnit) {
+        try {
+            if (type == EVENT_FIRST) {
+                taskListener.doFirst(task);
+            } else {
+                taskListener.doLast(task, time, timeUnit);
+            }
+        } catch (Throwable throwable) {
+            TaskGraphModule.logThrowable(throwable);
+        }
+    }
+
+    private static class ListenerEvent {
+        int type;
+        Task.TaskListener taskListener;
+        Task task;
+        long time;
+        TimeUnit timeUnit;
+    }
+}
@@ -0,0 +1,69 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class TaskMemo {
+
+    static final int CLAIM_RUN = 0;
+    static final int CLAIM_DONE = 1;
+    static final int CLAIM_WAIT = 2;
+
+    private static final Object SYNC = new Object();
+    private static final Set<String> DONE_KEY_SET = new HashSet<>();
+    private static final Map<String, List<TaskController>> RUNNING_KEY_MAP = new HashMap<>();
+
+    static int claim(String key, TaskController waiter) {
+        synchronized (SYNC) {
+            if (DONE_KEY_SET.contains(key)) {
+                return CLAIM_DONE;
+            }
+            List<TaskController> waiterList = RUNNING_KEY_MAP.get(key);
+            if (waiterList == null) {
+                RUNNING_KEY_MAP.put(key, new ArrayList<TaskController>());
+                return CLAIM_RUN;
+            }
+            waiterList.add(waiter);
+            return CLAIM_WAIT;
+        }
+    }
+
+    static void complete(String key) {
+        List<TaskController> waiterList;
+        synchronized (SYNC) {
+            DONE_KEY_SET.add(key);
+            waiterList = RUNNING_KEY_MAP.remove(key);
+        }
+        if (waiterList == null) {
+            return;
+        }
+        for (TaskController waiter : waiterList) {
+            waiter.onMemoDone(true);
+        }
+    }
+
+    static void abandon(String key) {
+        List<TaskController> waiterList;
+        synchronized (SYNC) {
+            waiterList = RUNNING_KEY_MAP.remove(key);
+        }
+        if (waiterList == null) {
+            return;
+        }
+        for (TaskController waiter : waiterList) {
+            waiter.onMemoDone(false);
+        }
+    }
+
+    static void unregister(List<TaskController> waiterList) {
+        synchronized (SYNC) {
+            for (List<TaskController> runningWaiterList : RUNNING_KEY_MAP.values()) {
+                TaskController.removeIdentity(runningWaiterList, waiterList);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+class TaskResourceManager {
+
+    private static final int DEFAULT_CAPACITY = 1;
+
+    private final Map<String, Integer> capacityMap;
+    private final Map<String, Integer> usedMap;
+    private final Set<String> busySerialQueueSet;
+
+    TaskResourceManager() {
+        this.capacityMap = new HashMap<>();
+        this.usedMap = new HashMap<>();
+        this.busySerialQueueSet = new HashSet<>();
+    }
+
+    void setCapacity(String resource, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("resource " + resource + " capacity must be greater than 0, capacity " + capacity);
+        }
+        capacityMap.put(resource, capacity);
+    }
+
+    int getCapacity(String resource) {
+        Integer capacity = capacityMap.get(resource);
+        return capacity == null ? DEFAULT_CAPACITY : capacity;
+    }
+
+    int getUsed(String resource) {
+        Integer used = usedMap.get(resource);
+        return used == null ? 0 : used;
+    }
+
+    boolean tryAcquire(TaskController taskController) {
+        if (taskController.serialQueue != null && busySerialQueueSet.contains(taskController.serialQueue)) {
+            return false;
+        }
+        for (Map.Entry<String, Integer> entry : taskController.resourceMap.entrySet()) {
+            String resource = entry.getKey();
+            if (getUsed(resource) + getRequire(resource, entry.getValue()) > getCapacity(resource)) {
+                return false;
+            }
+        }
+        if (taskController.serialQueue != null) {
+            busySerialQueueSet.add(taskController.serialQueue);
+        }
+        for (Map.Entry<String, Integer> entry : taskController.resourceMap.entrySet()) {
+            String resource = entry.getKey();
+            usedMap.put(resource, getUsed(resource) + getRequire(resource, entry.getValue()));
+        }
+        return true;
+    }
+
+    void release(TaskController taskController) {
+        if (taskController.serialQueue != null) {
+            busySerialQueueSet.remove(taskController.serialQueue);
+        }
+        for (Map.Entry<String, Integer> entry : taskController.resourceMap.entrySet()) {
+            String resource = entry.getKey();
+            int used = getUsed(resource) - getRequire(resource, entry.getValue());
+            if (used > 0) {
+                usedMap.put(resource, used);
+            } else {
+                usedMap.remove(resource);
+            }
+        }
+    }
+
+    String getConflictResource(TaskController taskController, TaskController otherController) {
+        for (Map.Entry<String, Integer> entry : taskController.resourceMap.entrySet()) {
+            String resource = entry.getKey();
+            Integer otherCount = otherController.resourceMap.get(resource);
+            if (otherCount != null && getRequire(resource, entry.getValue()) + getRequire(resource, otherCount) > getCapacity(resource)) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    private int getRequire(String resource, int count) {
+        return Math.min(count, getCapacity(resource));
+    }
+}
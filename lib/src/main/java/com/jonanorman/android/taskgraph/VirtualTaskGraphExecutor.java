@@ -0,0 +1,257 @@
+package com.jonanorman.android.taskgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class VirtualTaskGraphExecutor extends TaskGraphExecutor {
+
+    private final VirtualClock virtualClock;
+    private final Random random;
+    private final Object queueSync = new Object();
+    private final List<PendingRunnable> pendingList = new ArrayList<>();
+    private final List<TaskRecord> taskRecordList = new ArrayList<>();
+    private final Map<TaskController, TaskRecord> runningRecordMap = new IdentityHashMap<>();
+    private Thread runningThread;
+
+    public VirtualTaskGraphExecutor() {
+        this(null);
+    }
+
+    public VirtualTaskGraphExecutor(long seed) {
+        this(new Random(seed));
+    }
+
+    private VirtualTaskGraphExecutor(Random random) {
+        this.random = random;
+        this.virtualClock = new VirtualClock();
+        super.setClock(virtualClock);
+    }
+
+    @Override
+    public void setClock(TaskClock clock) {
+        throw new IllegalStateException("virtual executor always uses its virtual clock");
+    }
+
+    public VirtualClock getVirtualClock() {
+        return virtualClock;
+    }
+
+    @Override
+    void executeRecord(TaskGraphRecord record, boolean mainThread) {
+        offer(new PendingRunnable(record, null));
+    }
+
+    @Override
+    void executeTask(TaskController taskController) {
+        offer(new PendingRunnable(taskController, new TaskRecord(taskController.name, virtualClock.currentTimeMillis())));
+    }
+
+    @Override
+    void runInMainThread(Runnable runnable) {
+        offer(new PendingRunnable(runnable, null));
+    }
+
+    @Override
+    void post(Runnable runnable) {
+        offer(new PendingRunnable(runnable, null));
+    }
+
+    @Override
+    boolean isMainThread() {
+        return false;
+    }
+
+    @Override
+    boolean isAsyncInterceptSupported() {
+        return false;
+    }
+
+    @Override
+    void onTaskRunEnd(TaskController taskController) {
+        synchronized (queueSync) {
+            TaskRecord taskRecord = runningRecordMap.remove(taskController);
+            if (taskRecord != null) {
+                taskRecord.endTime = virtualClock.currentTimeMillis();
+            }
+        }
+    }
+
+    @Override
+    int getLanePoolSize(String lane) {
+        return 1;
+    }
+
+    @Override
+    String getChannelConflict(TaskController producer, TaskController consumer) {
+        return "virtual executor runs tasks one at a time";
+    }
+
+    private void offer(PendingRunnable pendingRunnable) {
+        synchronized (queueSync) {
+            pendingList.add(pendingRunnable);
+        }
+    }
+
+    public int runUntilIdle() {
+        synchronized (queueSync) {
+            if (runningThread != null) {
+                throw new IllegalStateException("runUntilIdle is already running on " + runningThread.getName());
+            }
+            runningThread = Thread.currentThread();
+        }
+        int runCount = 0;
+        try {
+            PendingRunnable pendingRunnable;
+            while ((pendingRunnable = poll()) != null) {
+                pendingRunnable.runnable.run();
+                runCount++;
+            }
+        } finally {
+            synchronized (queueSync) {
+                runningThread = null;
+                runningRecordMap.clear();
+            }
+        }
+        return runCount;
+    }
+
+    private PendingRunnable poll() {
+        synchronized (queueSync) {
+            if (pendingList.isEmpty()) {
+                return null;
+            }
+            int index = random == null ? 0 : random.nextInt(pendingList.size());
+            PendingRunnable pendingRunnable = pendingList.remove(index);
+            if (pendingRunnable.taskRecord != null) {
+                pendingRunnable.taskRecord.startTime = virtualClock.currentTimeMillis();
+                taskRecordList.add(pendingRunnable.taskRecord);
+                runningRecordMap.put((TaskController) pendingRunnable.runnable, pendingRunnable.taskRecord);
+            }
+            return pendingRunnable;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (queueSync) {
+            return pendingList.size();
+        }
+    }
+
+    public List<String> getDispatchOrder() {
+        List<String> dispatchList = new ArrayList<>();
+        for (TaskRecord taskRecord : getTaskRecords()) {
+            dispatchList.add(taskRecord.taskName);
+        }
+        return dispatchList;
+    }
+
+    public List<TaskRecord> getTaskRecords() {
+        synchronized (queueSync) {
+            return Collections.unmodifiableList(new ArrayList<>(taskRecordList));
+        }
+    }
+
+    public TaskRecord getTaskRecord(String taskName) {
+        TaskRecord findRecord = null;
+        for (TaskRecord taskRecord : getTaskRecords()) {
+            if (!taskRecord.taskName.equals(taskName)) {
+                continue;
+            }
+            if (findRecord != null) {
+                throw new IllegalArgumentException("task " + taskName + " dispatched more than once, use getTaskRecords");
+            }
+            findRecord = taskRecord;
+        }
+        if (findRecord == null) {
+            throw new IllegalArgumentException("not dispatched task " + taskName);
+        }
+        return findRecord;
+    }
+
+    public long getQueueTime(String taskName) {
+        return getTaskRecord(taskName).getQueueTime();
+    }
+
+    public long getStartTime(String taskName) {
+        return getTaskRecord(taskName).getStartTime();
+    }
+
+    public long getEndTime(String taskName) {
+        return getTaskRecord(taskName).getEndTime();
+    }
+
+    public void clearRecord() {
+        synchronized (queueSync) {
+            taskRecordList.clear();
+            runningRecordMap.clear();
+        }
+    }
+
+    public static final class VirtualClock implements TaskClock {
+        private volatile long time;
+
+        VirtualClock() {
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return time;
+        }
+
+        public void advance(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("advance time " + millis + " can not be negative");
+            }
+            synchronized (this) {
+                time += millis;
+            }
+        }
+    }
+
+    public static final class TaskRecord {
+        private final String taskName;
+        private final long queueStartTime;
+        private volatile long startTime = -1;
+        private volatile long endTime = -1;
+
+        TaskRecord(String taskName, long queueStartTime) {
+            this.taskName = taskName;
+            this.queueStartTime = queueStartTime;
+        }
+
+        public String getTaskName() {
+            return taskName;
+        }
+
+        public long getQueueTime() {
+            return startTime < 0 ? -1 : startTime - queueStartTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskRecord " + taskName + " [queueTime: " + getQueueTime() + ", startTime: " + startTime + ", endTime: " + endTime + "]";
+        }
+    }
+
+    private static class PendingRunnable {
+        final Runnable runnable;
+        final TaskRecord taskRecord;
+
+        PendingRunnable(Runnable runnable, TaskRecord taskRecord) {
+            this.runnable = runnable;
+            this.taskRecord = taskRecord;
+        }
+    }
+}
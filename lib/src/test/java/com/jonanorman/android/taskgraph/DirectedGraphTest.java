@@ -0,0 +1,70 @@
+package com.jonanorman.android.taskgraph;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DirectedGraphTest {
+
+    @Test
+    public void removeEdgeKeepsOtherEdges() {
+        DirectedGraph<String> graph = new DirectedGraph<>();
+        DirectedGraph.Vertex<String> last = new DirectedGraph.Vertex<>("last");
+        List<DirectedGraph.Vertex<String>> vertexList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            DirectedGraph.Vertex<String> vertex = new DirectedGraph.Vertex<>("v" + i);
+            vertexList.add(vertex);
+            graph.addEdge(new DirectedGraph.Edge<>(vertex, last));
+        }
+        graph.removeEdge(new DirectedGraph.Edge<>(vertexList.get(1), last));
+        graph.removeEdge(new DirectedGraph.Edge<>(vertexList.get(0), last));
+        Assert.assertEquals(3, graph.getInDegree(last));
+        Assert.assertFalse(graph.containsEdge(new DirectedGraph.Edge<>(vertexList.get(1), last)));
+        Assert.assertTrue(graph.containsEdge(new DirectedGraph.Edge<>(vertexList.get(4), last)));
+        graph.removeEdge(new DirectedGraph.Edge<>(vertexList.get(4), last));
+        graph.removeEdge(new DirectedGraph.Edge<>(vertexList.get(2), last));
+        Assert.assertEquals(1, graph.getInDegree(last));
+        Assert.assertTrue(graph.containsEdge(new DirectedGraph.Edge<>(vertexList.get(3), last)));
+    }
+
+    @Test
+    public void removeVertexFreesSuccessorOnce() {
+        DirectedGraph<String> graph = new DirectedGraph<>();
+        DirectedGraph.Vertex<String> last = new DirectedGraph.Vertex<>("last");
+        List<DirectedGraph.Vertex<String>> vertexList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DirectedGraph.Vertex<String> vertex = new DirectedGraph.Vertex<>("v" + i);
+            vertexList.add(vertex);
+            graph.addEdge(new DirectedGraph.Edge<>(vertex, last));
+        }
+        List<DirectedGraph.Vertex<String>> freeList = new ArrayList<>();
+        for (int i = vertexList.size() - 1; i >= 0; i -= 2) {
+            graph.removeVertex(vertexList.get(i), freeList);
+        }
+        for (int i = 0; i < vertexList.size(); i += 2) {
+            Assert.assertTrue(freeList.isEmpty());
+            graph.removeVertex(vertexList.get(i), freeList);
+        }
+        Assert.assertEquals(1, freeList.size());
+        Assert.assertSame(last, freeList.get(0));
+        Assert.assertEquals(0, graph.getInDegree(last));
+    }
+
+    @Test
+    public void cloneKeepsEdgeIndexes() throws Exception {
+        DirectedGraph<String> graph = new DirectedGraph<>();
+        DirectedGraph.Vertex<String> first = new DirectedGraph.Vertex<>("first");
+        DirectedGraph.Vertex<String> a = new DirectedGraph.Vertex<>("a");
+        DirectedGraph.Vertex<String> b = new DirectedGraph.Vertex<>("b");
+        graph.addEdge(new DirectedGraph.Edge<>(first, a));
+        graph.addEdge(new DirectedGraph.Edge<>(first, b));
+        graph.addEdge(new DirectedGraph.Edge<>(a, b));
+        DirectedGraph<String> clone = (DirectedGraph<String>) graph.clone();
+        clone.removeVertex(first);
+        Assert.assertEquals(0, clone.getInDegree(a));
+        Assert.assertEquals(1, clone.getInDegree(b));
+        Assert.assertEquals(2, graph.getOutDegree(first));
+    }
+}
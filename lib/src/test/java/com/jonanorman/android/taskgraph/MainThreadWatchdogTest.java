@@ -0,0 +1,110 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MainThreadWatchdogTest {
+
+    @Before
+    public void setUp() {
+        TaskGraphModule.initApplication(new Application());
+        TaskGraphModule.setLogFunction(null);
+    }
+
+    @Test
+    public void offendersRankedByTotalOverrun() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(16);
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMainThreadWatchdog(watchdog);
+        for (int i = 0; i < 2; i++) {
+            TaskGraph taskGraph = new TaskGraph("G" + i);
+            taskGraph.addTask(newMainTask(executor, "A", 20));
+            taskGraph.addTask(newMainTask(executor, "C", 10));
+            if (i == 0) {
+                taskGraph.addTask(newMainTask(executor, "B", 30));
+            }
+            taskGraph.execute(executor);
+            executor.runUntilIdle();
+        }
+        List<MainThreadWatchdog.Offender> offenderList = watchdog.getOffenders();
+        Assert.assertEquals(2, offenderList.size());
+        MainThreadWatchdog.Offender first = offenderList.get(0);
+        Assert.assertEquals("B", first.getTaskName());
+        Assert.assertEquals(14, first.getTotalOverrunTime());
+        Assert.assertEquals(1, first.getOverrunCount());
+        MainThreadWatchdog.Offender second = offenderList.get(1);
+        Assert.assertEquals("A", second.getTaskName());
+        Assert.assertEquals(8, second.getTotalOverrunTime());
+        Assert.assertEquals(2, second.getOverrunCount());
+        Assert.assertEquals(20, second.getMaxCostTime());
+        watchdog.clear();
+        Assert.assertTrue(watchdog.getOffenders().isEmpty());
+    }
+
+    @Test
+    public void offloadCandidatesExcludeMainThreadDependencies() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(16);
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMainThreadWatchdog(watchdog);
+        TaskGraph taskGraph = new TaskGraph("G");
+        taskGraph.addTask(newMainTask(executor, "Leaf", 40));
+        taskGraph.addTask(newMainTask(executor, "Root", 30));
+        taskGraph.addTask(newMainTask(executor, "Next", 1).dependsOn("Root"));
+        taskGraph.execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(2, watchdog.getOffenders().size());
+        List<MainThreadWatchdog.Offender> candidateList = watchdog.getOffloadCandidates();
+        Assert.assertEquals(1, candidateList.size());
+        Assert.assertEquals("Leaf", candidateList.get(0).getTaskName());
+    }
+
+    @Test
+    public void listenerReceivesOverrunAndStackSample() {
+        final List<MainThreadWatchdog.Offender> overrunList = new ArrayList<>();
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(5).setOverrunListener(new MainThreadWatchdog.OverrunListener() {
+            @Override
+            public void onOverrun(MainThreadWatchdog.Offender offender) {
+                overrunList.add(offender);
+            }
+        });
+        final VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMainThreadWatchdog(watchdog);
+        TaskGraph taskGraph = new TaskGraph("G");
+        taskGraph.addTask(new Task("Slow", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignore) {
+                }
+                executor.getVirtualClock().advance(200);
+            }
+        }, true, false));
+        taskGraph.execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(1, overrunList.size());
+        Assert.assertEquals("Slow", overrunList.get(0).getTaskName());
+        StackTraceElement[] stackTrace = overrunList.get(0).getStackTrace();
+        Assert.assertNotNull(stackTrace);
+        boolean sampledTask = false;
+        for (StackTraceElement element : stackTrace) {
+            sampledTask |= element.getClassName().startsWith(MainThreadWatchdogTest.class.getName());
+        }
+        Assert.assertTrue(sampledTask);
+    }
+
+    private static Task newMainTask(final VirtualTaskGraphExecutor executor, String name, final long costTime) {
+        return new Task(name, new Runnable() {
+            @Override
+            public void run() {
+                executor.getVirtualClock().advance(costTime);
+            }
+        }, true, false);
+    }
+}
@@ -0,0 +1,85 @@
+package com.jonanorman.android.taskgraph;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TaskControllerTest {
+
+    @Test
+    public void controllersShareTaskSnapshot() {
+        Task taskA = new Task("A");
+        Task taskB = new Task("B").dependsOn("A");
+        TaskGraph taskGraph = new TaskGraph("G").addTask(taskA).addTask(taskB);
+        TaskController first = findController(new TaskGraphController(taskGraph, null), "B");
+        TaskController second = findController(new TaskGraphController(taskGraph, null), "B");
+        Assert.assertSame(first.dependsOnSet, second.dependsOnSet);
+        Assert.assertSame(first.listenerSet, second.listenerSet);
+        Assert.assertSame(Collections.emptySet(), findController(new TaskGraphController(taskGraph, null), "A").dependsOnSet);
+    }
+
+    @Test
+    public void taskChangeRefreshesSnapshot() {
+        Task taskB = new Task("B").dependsOn("A");
+        TaskGraph taskGraph = new TaskGraph("G").addTask(new Task("A")).addTask(new Task("C")).addTask(taskB);
+        TaskController before = findController(new TaskGraphController(taskGraph, null), "B");
+        taskB.dependsOn("C");
+        TaskController after = findController(new TaskGraphController(taskGraph, null), "B");
+        Assert.assertEquals(1, before.dependsOnSet.size());
+        Assert.assertEquals(2, after.dependsOnSet.size());
+    }
+
+    @Test
+    public void precompiledPlanDoesNotCopyDepends() {
+        List<Task> taskList = new ArrayList<>();
+        taskList.add(new Task("A"));
+        taskList.add(new Task("B").dependsOn("A"));
+        taskList.add(new Task("C").dependsOn("A", "B"));
+        TaskGraph taskGraph = new TaskGraph("G").addTaskPlan(TaskGraphPlan.compile("P", taskList));
+        TaskGraphController graphController = new TaskGraphController(taskGraph, null);
+        Assert.assertTrue(graphController.isPrecompiled());
+        for (Object vertex : graphController.getDirectedGraph().getVertexSet()) {
+            TaskController taskController = (TaskController) ((DirectedGraph.Vertex) vertex).getValue();
+            Assert.assertSame(Collections.emptySet(), taskController.dependsOnSet);
+        }
+        Assert.assertEquals(2, graphController.getDirectedGraph().getInDegree(findVertex(graphController, "C")));
+    }
+
+    @Test
+    public void subGraphCopiesOnWrite() {
+        Task taskA = new Task("A");
+        TaskGraph subGraph = new TaskGraph("S").addTask(taskA).addTaskListener(new Task.TaskListener() {
+            @Override
+            public void doFirst(Task task) {
+            }
+
+            @Override
+            public void doLast(Task task, long time, TimeUnit timeUnit) {
+            }
+        });
+        TaskGraph taskGraph = new TaskGraph("G").addTaskGraph(subGraph);
+        TaskController taskController = findController(new TaskGraphController(taskGraph, null), "A");
+        Assert.assertEquals(1, taskController.dependsOnSet.size());
+        Assert.assertEquals(1, taskController.listenerSet.size());
+        Assert.assertTrue(taskA.getDependsSnapshot().isEmpty());
+        Assert.assertTrue(taskA.getListenerSnapshot().isEmpty());
+    }
+
+    private static TaskController findController(TaskGraphController graphController, String name) {
+        return (TaskController) findVertex(graphController, name).getValue();
+    }
+
+    private static DirectedGraph.Vertex findVertex(TaskGraphController graphController, String name) {
+        for (Object vertex : graphController.getDirectedGraph().getVertexSet()) {
+            DirectedGraph.Vertex graphVertex = (DirectedGraph.Vertex) vertex;
+            if (((TaskController) graphVertex.getValue()).name.equals(name)) {
+                return graphVertex;
+            }
+        }
+        throw new AssertionError("not found " + name);
+    }
+}
@@ -0,0 +1,121 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TaskGraphExecutorOverflowTest {
+
+    private final List<String> runList = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        TaskGraphModule.initApplication(new Application());
+        TaskGraphModule.setLogFunction(null);
+    }
+
+    @Test
+    public void rejectThrowsWhenFull() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMaxPendingGraphCount(1, TaskGraphExecutor.OverflowPolicy.REJECT);
+        newGraph("G1").execute(executor);
+        try {
+            newGraph("G2").execute(executor);
+            Assert.fail("G2 should be rejected");
+        } catch (RejectedExecutionException ignore) {
+        }
+        Assert.assertEquals(1, executor.getRejectedCount());
+        Assert.assertEquals(1, executor.getPendingGraphCount());
+        executor.runUntilIdle();
+        Assert.assertEquals(0, executor.getPendingGraphCount());
+        newGraph("G3").execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("G1", "G3"), runList);
+    }
+
+    @Test
+    public void callerRunsWhenFull() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMaxPendingGraphCount(1, TaskGraphExecutor.OverflowPolicy.CALLER_RUNS);
+        newGraph("G1").execute(executor);
+        newGraph("G2").execute(executor);
+        Assert.assertEquals(Arrays.asList("G2"), runList);
+        Assert.assertEquals(1, executor.getCallerRunCount());
+        Assert.assertEquals(1, executor.getPendingGraphCount());
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("G2", "G1"), runList);
+        Assert.assertEquals(0, executor.getPendingGraphCount());
+    }
+
+    @Test
+    public void blockRejectsAfterTimeout() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMaxPendingGraphCount(1, TaskGraphExecutor.OverflowPolicy.BLOCK);
+        executor.setBlockTimeout(50, TimeUnit.MILLISECONDS);
+        newGraph("G1").execute(executor);
+        long startTime = System.currentTimeMillis();
+        try {
+            newGraph("G2").execute(executor);
+            Assert.fail("G2 should be rejected");
+        } catch (RejectedExecutionException ignore) {
+        }
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 50);
+        Assert.assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void blockWaitsForFreeSlot() throws Exception {
+        final VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMaxPendingGraphCount(1, TaskGraphExecutor.OverflowPolicy.BLOCK);
+        executor.setBlockTimeout(10, TimeUnit.SECONDS);
+        newGraph("G1").execute(executor);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignore) {
+                }
+                executor.runUntilIdle();
+            }
+        });
+        thread.start();
+        newGraph("G2").execute(executor);
+        thread.join();
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("G1", "G2"), runList);
+        Assert.assertEquals(0, executor.getRejectedCount());
+        Assert.assertEquals(0, executor.getPendingGraphCount());
+    }
+
+    @Test
+    public void clearMaxPendingGraphCountAcceptsAll() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        executor.setMaxPendingGraphCount(1, TaskGraphExecutor.OverflowPolicy.REJECT);
+        newGraph("G1").execute(executor);
+        executor.clearMaxPendingGraphCount();
+        newGraph("G2").execute(executor);
+        Assert.assertEquals(2, executor.getPendingGraphCount());
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("G1", "G2"), runList);
+    }
+
+    private TaskGraph newGraph(final String name) {
+        return new TaskGraph(name).addTask(new Task(name + "Task", new Runnable() {
+            @Override
+            public void run() {
+                synchronized (runList) {
+                    runList.add(name);
+                }
+            }
+        }, false, false));
+    }
+}
@@ -0,0 +1,77 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class TaskGraphSimulatorTest {
+
+    @Test
+    public void makespanFollowsCriticalPath() {
+        TaskGraphSimulator.Result result = new TaskGraphSimulator()
+                .setTaskDuration("A", 10)
+                .setTaskDuration("B", 30)
+                .setTaskDuration("C", 20)
+                .setTaskDuration("D", 5)
+                .simulate(newDiamondGraph());
+        Assert.assertEquals(45, result.getMakespan());
+        Assert.assertEquals(Arrays.asList("A", "B", "D"), result.getCriticalPath());
+        Assert.assertEquals(10, result.getStartTime("C"));
+        Assert.assertEquals(40, result.getStartTime("D"));
+    }
+
+    @Test
+    public void singleThreadSerializesBranches() {
+        TaskGraphSimulator.Result result = new TaskGraphSimulator()
+                .setThreadCount(1)
+                .setTaskDuration("A", 10)
+                .setTaskDuration("B", 30)
+                .setTaskDuration("C", 20)
+                .setTaskDuration("D", 5)
+                .simulate(newDiamondGraph());
+        Assert.assertEquals(65, result.getMakespan());
+        Assert.assertEquals(Arrays.asList("A", "B", "C", "D"), result.getDispatchOrder());
+        Assert.assertEquals(30, result.getQueueTime("C"));
+    }
+
+    @Test
+    public void durationRecorderRecordsRunCost() {
+        TaskGraphModule.initApplication(new Application());
+        final VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        TaskGraph taskGraph = new TaskGraph("G");
+        taskGraph.addTask(new Task("A", newAdvanceRunnable(executor, 15), false, false));
+        taskGraph.addTask(new Task("B", newAdvanceRunnable(executor, 25), false, false).dependsOn("A"));
+        TaskGraphSimulator.DurationRecorder recorder = new TaskGraphSimulator.DurationRecorder();
+        taskGraph.addTaskListener(recorder);
+        taskGraph.execute(executor);
+        executor.runUntilIdle();
+        Map<String, Long> durationMap = recorder.getDurationMap();
+        Assert.assertEquals(Long.valueOf(15), durationMap.get("A"));
+        Assert.assertEquals(Long.valueOf(25), durationMap.get("B"));
+        TaskGraphSimulator.Result result = new TaskGraphSimulator()
+                .setTaskDurations(durationMap)
+                .simulate(taskGraph);
+        Assert.assertEquals(40, result.getMakespan());
+    }
+
+    private static TaskGraph newDiamondGraph() {
+        return new TaskGraph("G")
+                .addTask(new Task("A"))
+                .addTask(new Task("B").dependsOn("A"))
+                .addTask(new Task("C").dependsOn("A"))
+                .addTask(new Task("D").dependsOn("B", "C"));
+    }
+
+    private static Runnable newAdvanceRunnable(final VirtualTaskGraphExecutor executor, final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executor.getVirtualClock().advance(millis);
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package com.jonanorman.android.taskgraph;
+
+import android.app.Application;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class VirtualTaskGraphExecutorTest {
+
+    @Before
+    public void setUp() {
+        TaskGraphModule.initApplication(new Application());
+        TaskGraphModule.setLogFunction(null);
+    }
+
+    @Test
+    public void runsInSubmissionOrderWithoutSeed() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        newGraph(newTasks(executor, 5)).execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("T0", "T1", "T2", "T3", "T4"), executor.getDispatchOrder());
+        Assert.assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void sameSeedKeepsOrder() {
+        List<String> first = runWithSeed(7);
+        Assert.assertEquals(first, runWithSeed(7));
+        Assert.assertNotEquals(first, runWithSeed(8));
+        Assert.assertEquals(20, first.size());
+    }
+
+    @Test
+    public void seedKeepsDependencies() {
+        for (long seed = 0; seed < 20; seed++) {
+            VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor(seed);
+            Task[] tasks = newTasks(executor, 6);
+            tasks[5].dependsOn("T3");
+            tasks[3].dependsOn("T1");
+            newGraph(tasks).execute(executor);
+            executor.runUntilIdle();
+            List<String> order = executor.getDispatchOrder();
+            Assert.assertTrue(order.toString(), order.indexOf("T1") < order.indexOf("T3"));
+            Assert.assertTrue(order.toString(), order.indexOf("T3") < order.indexOf("T5"));
+        }
+    }
+
+    @Test
+    public void recordsSerializedVirtualTimes() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        TaskGraph taskGraph = new TaskGraph("G");
+        taskGraph.addTask(new Task("A", newAdvanceRunnable(executor, 10), false, false));
+        taskGraph.addTask(new Task("B", newAdvanceRunnable(executor, 20), false, false));
+        taskGraph.addTask(new Task("C", newAdvanceRunnable(executor, 5), false, false).dependsOn("A", "B"));
+        taskGraph.execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(0, executor.getStartTime("A"));
+        Assert.assertEquals(10, executor.getEndTime("A"));
+        Assert.assertEquals(10, executor.getQueueTime("B"));
+        Assert.assertEquals(30, executor.getEndTime("B"));
+        Assert.assertEquals(30, executor.getStartTime("C"));
+        Assert.assertEquals(0, executor.getQueueTime("C"));
+        Assert.assertEquals(35, executor.getVirtualClock().currentTimeMillis());
+    }
+
+    @Test
+    public void synchronousInterceptorRuns() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        Task[] tasks = newTasks(executor, 2);
+        tasks[1].addTaskInterceptor(new Task.TaskInterceptor() {
+            @Override
+            public void onIntercept(Task.TaskInterceptorChain interceptorChain) {
+                interceptorChain.proceed();
+            }
+        });
+        newGraph(tasks).execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(Arrays.asList("T0", "T1"), executor.getDispatchOrder());
+        Assert.assertEquals(2, executor.getEndTime("T1"));
+    }
+
+    @Test
+    public void mainThreadInterceptorsRun() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        Task task = new Task("M", newAdvanceRunnable(executor, 3), true, false);
+        for (int i = 0; i < 2; i++) {
+            task.addTaskInterceptor(new Task.TaskInterceptor() {
+                @Override
+                public void onIntercept(Task.TaskInterceptorChain interceptorChain) {
+                    interceptorChain.proceed();
+                }
+            });
+        }
+        newGraph(task).execute(executor);
+        executor.runUntilIdle();
+        Assert.assertEquals(3, executor.getEndTime("M"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void asyncInterceptorRejected() {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor();
+        Task[] tasks = newTasks(executor, 1);
+        tasks[0].addTaskInterceptor(new Task.TaskInterceptor() {
+            @Override
+            public void onIntercept(final Task.TaskInterceptorChain interceptorChain) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        interceptorChain.proceed();
+                    }
+                }).start();
+            }
+        });
+        newGraph(tasks).execute(executor);
+        executor.runUntilIdle();
+    }
+
+    private static List<String> runWithSeed(long seed) {
+        VirtualTaskGraphExecutor executor = new VirtualTaskGraphExecutor(seed);
+        newGraph(newTasks(executor, 20)).execute(executor);
+        executor.runUntilIdle();
+        return executor.getDispatchOrder();
+    }
+
+    private static Task[] newTasks(VirtualTaskGraphExecutor executor, int taskCount) {
+        Task[] tasks = new Task[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            tasks[i] = new Task("T" + i, newAdvanceRunnable(executor, 1), false, false);
+        }
+        return tasks;
+    }
+
+    private static TaskGraph newGraph(Task... tasks) {
+        TaskGraph taskGraph = new TaskGraph("G");
+        for (Task task : tasks) {
+            taskGraph.addTask(task);
+        }
+        return taskGraph;
+    }
+
+    private static Runnable newAdvanceRunnable(final VirtualTaskGraphExecutor executor, final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executor.getVirtualClock().advance(millis);
+            }
+        };
+    }
+}